@@ -21,25 +21,39 @@
 package com.jvmtop;
 
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 
+import com.jvmtop.profiler.IdleFrameClassifier;
+import com.jvmtop.profiler.LineHits;
+import com.jvmtop.profiler.PackageFilter;
 import com.jvmtop.view.ConsoleView;
+import com.jvmtop.view.ProfileDiffView;
+import com.jvmtop.view.VMAgentProfileView;
+import com.jvmtop.view.VMAllocationProfileView;
+import com.jvmtop.view.VMContentionProfileView;
 import com.jvmtop.view.VMDetailView;
+import com.jvmtop.view.VMMultiProfileView;
 import com.jvmtop.view.VMOverviewView;
+import com.jvmtop.view.VMPerfDataOverviewView;
 import com.jvmtop.view.VMProfileView;
+import com.jvmtop.view.VMWallClockProfileView;
 
 /**
  * JvmTop entry point class.
@@ -91,6 +105,89 @@ public class JvmTop
             "delay between each output iteration").withRequiredArg()
         .ofType(Double.class);
     parser.accepts("profile", "start CPU profiling at the specified jvm");
+    parser.accepts("profile-alloc",
+        "start allocation profiling at the specified jvm");
+    parser.accepts("profile-wall",
+        "start wall-clock profiling (including waiting threads) at the specified jvm");
+    parser
+        .accepts("profile-agent",
+            "start CPU profiling using an agent loaded into the specified jvm, instead of thread dumps over JMX");
+    parser.accepts("profile-locks",
+        "start lock contention profiling at the specified jvm");
+    parser
+        .accepts("profile-maxnodes",
+            "limits the number of call tree nodes kept by the profiler (defaults to 100000)")
+        .withRequiredArg().ofType(Integer.class);
+    parser
+        .accepts("profile-output",
+            "writes the sampled stacks to the given file in collapsed stack (flame graph) format, counts are microseconds (bytes with --profile-alloc)")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-save",
+            "saves the profile to the given file when jvmtop exits, see --profile-diff")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-diff",
+            "compares the given saved profile with the one given as argument (instead of a PID), --profile-output exports the diff")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("perfdata",
+            "overview mode which reads the performance counters (hsperfdata) of the jvms instead of attaching to them");
+    parser
+        .accepts("update-timeout",
+            "sets the time in milliseconds the overview waits for the jvms, slower jvms are shown as stale (defaults to 500)")
+        .withRequiredArg().ofType(Integer.class);
+    parser
+        .accepts("deadlock-interval",
+            "sets the minimum time between two deadlock detections of a jvm in seconds (defaults to 10)")
+        .withRequiredArg().ofType(Double.class);
+    parser
+        .accepts("deadlock-budget",
+            "limits the time spent for the deadlock detection of a jvm to the given percentage (e.g. 1%, the default)")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-interval",
+            "sets the profiler sample interval in milliseconds, independent of the refresh delay (defaults to 100)")
+        .withRequiredArg().ofType(Integer.class);
+    parser
+        .accepts("profile-overhead",
+            "adapts the profiler sample interval to limit the sampling overhead to the given percentage (e.g. 1%)")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-filter",
+            "adds the package filter rules of the given file (one class name prefix per line, '+' to include, '-' to exclude)")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-idle",
+            "adds the idle frames of the given file (one class.method per line, '-' to remove a default idle frame)")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-window",
+            "additionally shows the share of each method within the last given seconds (e.g. 10)")
+        .withRequiredArg().ofType(Double.class);
+    parser
+        .accepts("profile-halflife",
+            "additionally shows the share of each method with hits decaying by half after the given seconds")
+        .withRequiredArg().ofType(Double.class);
+    parser.accepts("profile-pools",
+        "shows the top methods per thread pool (thread names without trailing digits)");
+    parser.accepts("profile-lines",
+        "shows the source lines with the most hits below each method");
+    parser
+        .accepts("profile-maxlines",
+            "limits the number of source lines kept by the profiler (implies --profile-lines, defaults to 10000)")
+        .withRequiredArg().ofType(Integer.class);
+    parser
+        .accepts("profile-threads",
+            "only profiles threads whose name matches the given regular expression")
+        .withRequiredArg().ofType(String.class);
+    parser
+        .accepts("profile-targeted",
+            "only fetches the stacks of threads which consumed cpu time since the previous sample");
+    parser
+        .accepts("profile-depth",
+            "limits the number of fetched stack frames per thread (implies --profile-targeted)")
+        .withRequiredArg().ofType(Integer.class);
     parser.accepts("sysinfo", "outputs diagnostic information");
     parser.accepts("verbose", "verbose mode");
     parser.accepts("threadlimit",
@@ -127,7 +224,7 @@ public class JvmTop
     if (a.has("help"))
     {
       System.out.println("jvmtop - java monitoring for the command-line");
-      System.out.println("Usage: jvmtop.sh [options...] [PID]");
+      System.out.println("Usage: jvmtop.sh [options...] [PID...]");
       System.out.println("");
       parser.printHelpOn(System.out);
       System.exit(0);
@@ -136,11 +233,24 @@ public class JvmTop
 
     Integer pid = null;
 
+    List<Integer> pids = new ArrayList<Integer>();
+
     Integer width = null;
 
     double delay = 1.0;
 
-    boolean profileMode = a.has("profile");
+    boolean profileMode = a.has("profile") || a.has("profile-alloc")
+        || a.has("profile-wall") || a.has("profile-agent");
+
+    boolean agentProfileMode = a.has("profile-agent");
+
+    boolean allocationProfileMode = a.has("profile-alloc");
+
+    boolean wallClockProfileMode = a.has("profile-wall");
+
+    boolean contentionProfileMode = a.has("profile-locks");
+
+    boolean perfDataMode = a.has("perfdata");
 
     Integer iterations = a.has("once") ? 1 : -1;
 
@@ -150,6 +260,42 @@ public class JvmTop
 
     Integer threadNameWidth = null;
 
+    Integer profileMaxNodes = null;
+
+    String profileOutput = null;
+
+    String profileSave = null;
+
+    Integer updateTimeout = null;
+
+    Double deadlockInterval = null;
+
+    Double deadlockBudget = null;
+
+    Integer profileInterval = null;
+
+    Double profileOverhead = null;
+
+    boolean profileTargeted = a.has("profile-targeted");
+
+    Integer profileDepth = null;
+
+    Pattern profileThreads = null;
+
+    boolean profilePools = a.has("profile-pools");
+
+    boolean profileLines = a.has("profile-lines");
+
+    Integer profileMaxLines = null;
+
+    Double profileWindow = null;
+
+    Double profileHalfLife = null;
+
+    PackageFilter profileFilter = null;
+
+    IdleFrameClassifier profileIdle = null;
+
     if (a.hasArgument("delay"))
     {
       delay = (Double) (a.valueOf("delay"));
@@ -164,10 +310,28 @@ public class JvmTop
       iterations = (Integer) a.valueOf("n");
     }
 
+    String profileDiffBase = null;
+
+    String profileDiffTarget = null;
+
+    if (a.hasArgument("profile-diff"))
+    {
+      profileDiffBase = (String) a.valueOf("profile-diff");
+      if (a.nonOptionArguments().size() != 1)
+      {
+        throw new IllegalArgumentException(
+            "--profile-diff requires the profile to compare with as argument");
+      }
+      profileDiffTarget = (String) a.nonOptionArguments().get(0);
+    }
     //to support PID as non option argument
-    if (a.nonOptionArguments().size() > 0)
+    else if (a.nonOptionArguments().size() > 0)
     {
       pid = Integer.valueOf((String) a.nonOptionArguments().get(0));
+      for (Object argument : a.nonOptionArguments())
+      {
+        pids.add(Integer.valueOf((String) argument));
+      }
     }
 
     if (a.hasArgument("pid"))
@@ -202,6 +366,147 @@ public class JvmTop
       threadNameWidth = (Integer) a.valueOf("threadnamewidth");
     }
 
+    if (a.hasArgument("profile-maxnodes"))
+    {
+      profileMaxNodes = (Integer) a.valueOf("profile-maxnodes");
+    }
+
+    if (a.hasArgument("profile-output"))
+    {
+      profileOutput = (String) a.valueOf("profile-output");
+    }
+
+    if (a.hasArgument("update-timeout"))
+    {
+      updateTimeout = (Integer) a.valueOf("update-timeout");
+    }
+
+    if (a.hasArgument("deadlock-interval"))
+    {
+      deadlockInterval = (Double) a.valueOf("deadlock-interval");
+    }
+
+    if (a.hasArgument("deadlock-budget"))
+    {
+      String budget = ((String) a.valueOf("deadlock-budget")).trim();
+      if (budget.endsWith("%"))
+      {
+        budget = budget.substring(0, budget.length() - 1);
+      }
+      deadlockBudget = Double.valueOf(budget) / 100d;
+      if (deadlockBudget <= 0 || deadlockBudget > 1)
+      {
+        throw new IllegalArgumentException(
+            "Deadlock budget must be between 0% and 100%");
+      }
+    }
+
+    if (a.hasArgument("profile-interval"))
+    {
+      profileInterval = (Integer) a.valueOf("profile-interval");
+    }
+
+    if (a.hasArgument("profile-overhead"))
+    {
+      String overhead = ((String) a.valueOf("profile-overhead")).trim();
+      if (overhead.endsWith("%"))
+      {
+        overhead = overhead.substring(0, overhead.length() - 1);
+      }
+      profileOverhead = Double.valueOf(overhead) / 100d;
+      if (profileOverhead <= 0 || profileOverhead > 1)
+      {
+        throw new IllegalArgumentException(
+            "Profile overhead must be between 0% and 100%");
+      }
+    }
+
+    if (a.hasArgument("profile-save"))
+    {
+      profileSave = (String) a.valueOf("profile-save");
+    }
+
+    if (a.hasArgument("profile-window"))
+    {
+      profileWindow = (Double) a.valueOf("profile-window");
+    }
+
+    if (a.hasArgument("profile-halflife"))
+    {
+      profileHalfLife = (Double) a.valueOf("profile-halflife");
+    }
+
+    if (a.hasArgument("profile-filter"))
+    {
+      profileFilter = PackageFilter.createDefault();
+      profileFilter.load(new File((String) a.valueOf("profile-filter")));
+    }
+
+    if (a.hasArgument("profile-idle"))
+    {
+      profileIdle = IdleFrameClassifier.createDefault();
+      profileIdle.load(new File((String) a.valueOf("profile-idle")));
+    }
+
+    if (a.hasArgument("profile-threads"))
+    {
+      profileThreads = Pattern.compile((String) a.valueOf("profile-threads"));
+    }
+
+    if (a.hasArgument("profile-maxlines"))
+    {
+      profileMaxLines = (Integer) a.valueOf("profile-maxlines");
+      profileLines = true;
+    }
+
+    if (a.hasArgument("profile-depth"))
+    {
+      profileDepth = (Integer) a.valueOf("profile-depth");
+      profileTargeted = true;
+    }
+
+    if (agentProfileMode
+        && (allocationProfileMode || wallClockProfileMode || profileTargeted))
+    {
+      throw new IllegalArgumentException(
+          "--profile-agent only supports CPU profiling of complete stacks");
+    }
+
+    if (agentProfileMode && profileThreads != null)
+    {
+      // the agent aggregates the threads per thread pool
+      throw new IllegalArgumentException(
+          "--profile-agent does not support --profile-threads");
+    }
+
+    if (contentionProfileMode
+        && (profileMode || profileFilter != null || profileIdle != null
+            || profileThreads != null || profileOutput != null
+            || profileSave != null || profileWindow != null
+            || profileHalfLife != null || profilePools || profileLines
+            || profileTargeted || profileMaxNodes != null))
+    {
+      // the contention profiler does not record stacks, only blocked times per lock and frame
+      throw new IllegalArgumentException(
+          "--profile-locks cannot be combined with other profiling modes and only supports --profile-interval and --profile-overhead");
+    }
+
+    if (pids.size() > 1
+        && (!profileMode || agentProfileMode || allocationProfileMode
+            || wallClockProfileMode || profileOutput != null
+            || profileSave != null || profileWindow != null
+            || profileHalfLife != null || profilePools || profileLines))
+    {
+      throw new IllegalArgumentException(
+          "Several PIDs are only supported by --profile, without exports, recent activity, thread pools or source lines");
+    }
+
+    if (perfDataMode && (pid != null || profileDiffBase != null))
+    {
+      throw new IllegalArgumentException(
+          "--perfdata is only supported by the overview mode");
+    }
+
     if (sysInfoOption)
     {
       outputSystemProps();
@@ -211,19 +516,175 @@ public class JvmTop
       JvmTop jvmTop = new JvmTop();
       jvmTop.setDelay(delay);
       jvmTop.setMaxIterations(iterations);
-      if (pid == null)
+      if (profileDiffBase != null)
+      {
+        ProfileDiffView profileDiffView = new ProfileDiffView(new File(
+            profileDiffBase), new File(profileDiffTarget), width);
+        if (profileOutput != null)
+        {
+          profileDiffView.setFoldedDiffOutput(new File(profileOutput));
+        }
+        jvmTop.run(profileDiffView);
+      }
+      else if (perfDataMode)
+      {
+        jvmTop.run(new VMPerfDataOverviewView(width));
+      }
+      else if (pid == null)
       {
-        jvmTop.run(new VMOverviewView(width));
+        VMOverviewView vmOverviewView = new VMOverviewView(width);
+        if (updateTimeout != null)
+        {
+          vmOverviewView.setUpdateTimeout(updateTimeout);
+        }
+        if (deadlockInterval != null)
+        {
+          vmOverviewView.setDeadlockInterval((long) (deadlockInterval * 1000));
+        }
+        if (deadlockBudget != null)
+        {
+          vmOverviewView.setDeadlockBudget(deadlockBudget);
+        }
+        jvmTop.run(vmOverviewView);
       }
       else
       {
-        if (profileMode)
+        if (contentionProfileMode)
+        {
+          VMContentionProfileView vmContentionProfileView = new VMContentionProfileView(
+              pid, width);
+          if (profileInterval != null)
+          {
+            vmContentionProfileView.setSampleInterval(profileInterval);
+          }
+          if (profileOverhead != null)
+          {
+            vmContentionProfileView.setOverheadBudget(profileOverhead);
+          }
+          jvmTop.run(vmContentionProfileView);
+        }
+        else if (pids.size() > 1)
+        {
+          VMMultiProfileView vmMultiProfileView = new VMMultiProfileView(pids,
+              width);
+          if (profileInterval != null)
+          {
+            vmMultiProfileView.setSampleInterval(profileInterval);
+          }
+          if (profileOverhead != null)
+          {
+            vmMultiProfileView.setOverheadBudget(profileOverhead);
+          }
+          if (profileMaxNodes != null)
+          {
+            vmMultiProfileView.setMaxCallTreeNodes(profileMaxNodes);
+          }
+          if (profileFilter != null)
+          {
+            vmMultiProfileView.setPackageFilter(profileFilter);
+          }
+          if (profileIdle != null)
+          {
+            vmMultiProfileView.setIdleFrameClassifier(profileIdle);
+          }
+          if (profileThreads != null)
+          {
+            vmMultiProfileView.setThreadNamePattern(profileThreads);
+          }
+          if (profileTargeted)
+          {
+            vmMultiProfileView
+                .setTargetedSampling(profileDepth != null ? profileDepth
+                    : Integer.MAX_VALUE);
+          }
+          jvmTop.run(vmMultiProfileView);
+        }
+        else if (profileMode)
         {
-          jvmTop.run(new VMProfileView(pid, width));
+          VMProfileView vmProfileView;
+          if (allocationProfileMode)
+          {
+            vmProfileView = new VMAllocationProfileView(pid, width);
+          }
+          else if (wallClockProfileMode)
+          {
+            vmProfileView = new VMWallClockProfileView(pid, width);
+          }
+          else if (agentProfileMode)
+          {
+            vmProfileView = new VMAgentProfileView(pid, width);
+          }
+          else
+          {
+            vmProfileView = new VMProfileView(pid, width);
+          }
+          if (profileMaxNodes != null)
+          {
+            vmProfileView.setMaxCallTreeNodes(profileMaxNodes);
+          }
+          if (profileOutput != null)
+          {
+            vmProfileView.setFoldedStackOutput(new File(profileOutput));
+          }
+          if (profileSave != null)
+          {
+            vmProfileView.setProfileSaveFile(new File(profileSave));
+          }
+          if (profileInterval != null)
+          {
+            vmProfileView.setSampleInterval(profileInterval);
+          }
+          if (profileOverhead != null)
+          {
+            vmProfileView.setOverheadBudget(profileOverhead);
+          }
+          if (profileFilter != null)
+          {
+            vmProfileView.setPackageFilter(profileFilter);
+          }
+          if (profileIdle != null)
+          {
+            vmProfileView.setIdleFrameClassifier(profileIdle);
+          }
+          if (profileWindow != null)
+          {
+            vmProfileView.setRecentWindow((long) (profileWindow * 1000));
+          }
+          if (profileHalfLife != null)
+          {
+            vmProfileView.setRecentHalfLife((long) (profileHalfLife * 1000));
+          }
+          if (profilePools)
+          {
+            vmProfileView.setThreadPoolView(true);
+          }
+          if (profileLines)
+          {
+            vmProfileView.setLineView(profileMaxLines != null ? profileMaxLines
+                : LineHits.DEFAULT_MAX_LINES);
+          }
+          if (profileThreads != null)
+          {
+            vmProfileView.setThreadNamePattern(profileThreads);
+          }
+          if (profileTargeted)
+          {
+            vmProfileView.setTargetedSampling(profileDepth != null ? profileDepth
+                : Integer.MAX_VALUE);
+          }
+          jvmTop.run(vmProfileView);
         }
         else
         {
           VMDetailView vmDetailView = new VMDetailView(pid, width);
+          if (deadlockInterval != null)
+          {
+            vmDetailView.setDeadlockInterval((long) (deadlockInterval * 1000));
+          }
+          if (deadlockBudget != null)
+          {
+            vmDetailView.setDeadlockBudget(deadlockBudget);
+          }
           vmDetailView.setDisplayedThreadLimit(threadLimitEnabled);
           if (threadlimit != null)
           {
@@ -0,0 +1,365 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.agent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Java agent which samples the threads of the jvm it has been loaded into
+ * and sends the results to jvmtop over a loopback socket.
+ *
+ * On each request of jvmtop, the agent dumps all threads and replies with the cpu time deltas
+ * of the threads which consumed cpu time since the previous request, aggregated per stack:
+ * threads of the same pool (thread name without trailing digits) with the same state and stack
+ * are sent as a single stack id and the sum of their deltas.
+ * Frames, thread pool names and stacks are sent once and referred to by id afterwards,
+ * so a sample only transfers a few integers per stack instead of serialized ThreadInfo objects.
+ *
+ * As the agent lives in the monitored jvm, its dictionaries are bounded:
+ * if one of them exceeds its limit, all of them are cleared and jvmtop is told to do the same.
+ *
+ * Note that the thread dump still requires a safepoint in the monitored jvm,
+ * the agent only saves the JMX round trips and the serialization.
+ *
+ * The agent must not depend on any other class of jvmtop, as it runs in the monitored jvm.
+ * It stops as soon as the connection to jvmtop is closed.
+ *
+ * @author paru
+ *
+ */
+public class SamplingAgent implements Runnable
+{
+  public static final int    MAGIC          = 0x4a564d41;
+
+  public static final int    VERSION        = 2;
+
+  /**
+   * sent by jvmtop to request a sample
+   */
+  public static final int    REQUEST_SAMPLE = 1;
+
+  /**
+   * record types sent by the agent
+   */
+  public static final int    RECORD_FRAME   = 1;
+
+  public static final int    RECORD_THREAD  = 2;
+
+  public static final int    RECORD_SAMPLE  = 3;
+
+  public static final int    RECORD_STACK   = 4;
+
+  /**
+   * all ids sent before are invalid
+   */
+  public static final int    RECORD_RESET   = 5;
+
+  private static final int   MAX_FRAMES     = 50000;
+
+  private static final int   MAX_THREADS    = 5000;
+
+  private static final int   MAX_STACKS     = 50000;
+
+  private int                port_;
+
+  private long               token_;
+
+  private ThreadMXBean       threadMxBean_  = ManagementFactory
+                                                .getThreadMXBean();
+
+  private Map<StackTraceElement, Integer> frames_ = new HashMap<StackTraceElement, Integer>();
+
+  private Map<String, Integer> threadNames_ = new HashMap<String, Integer>();
+
+  private Map<StackKey, Integer> stacks_    = new HashMap<StackKey, Integer>();
+
+  private Map<Long, Long>    cpuTimes_       = new HashMap<Long, Long>();
+
+  private Map<Long, Long>    nextCpuTimes_   = new HashMap<Long, Long>();
+
+  private SamplingAgent(int port, long token)
+  {
+    super();
+    port_ = port;
+    token_ = token;
+  }
+
+  /**
+   * Invoked when the agent is loaded into a running jvm.
+   *
+   * @param args "port=[port of jvmtop],token=[token to identify the agent]"
+   */
+  public static void agentmain(String args)
+  {
+    int port = -1;
+    long token = 0;
+    for (String arg : args.split(","))
+    {
+      if (arg.startsWith("port="))
+      {
+        port = Integer.parseInt(arg.substring("port=".length()));
+      }
+      else if (arg.startsWith("token="))
+      {
+        token = Long.parseLong(arg.substring("token=".length()));
+      }
+    }
+    if (port < 0)
+    {
+      throw new IllegalArgumentException("Missing port: " + args);
+    }
+    Thread thread = new Thread(new SamplingAgent(port, token), "jvmtop agent");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void run()
+  {
+    Socket socket = null;
+    try
+    {
+      socket = new Socket(InetAddress.getByName("127.0.0.1"), port_);
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(
+          socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          socket.getOutputStream()));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(token_);
+      out.flush();
+      while (in.read() == REQUEST_SAMPLE)
+      {
+        sample(out);
+        out.flush();
+      }
+    }
+    catch (IOException e)
+    {
+      // jvmtop has exited
+    }
+    finally
+    {
+      if (socket != null)
+      {
+        try
+        {
+          socket.close();
+        }
+        catch (IOException e)
+        {
+          // ignore
+        }
+      }
+    }
+  }
+
+  private void sample(DataOutputStream out) throws IOException
+  {
+    if (frames_.size() > MAX_FRAMES || threadNames_.size() > MAX_THREADS
+        || stacks_.size() > MAX_STACKS)
+    {
+      // e.g. caused by generated classes or short-lived thread pools
+      frames_.clear();
+      threadNames_.clear();
+      stacks_.clear();
+      out.write(RECORD_RESET);
+    }
+
+    long start = System.nanoTime();
+    ThreadInfo[] threadInfos = threadMxBean_.dumpAllThreads(false, false);
+    long stackRequestMicros = (System.nanoTime() - start) / 1000;
+
+    long ownThreadId = Thread.currentThread().getId();
+    Map<Integer, Long> stackDeltas = new LinkedHashMap<Integer, Long>();
+    for (ThreadInfo threadInfo : threadInfos)
+    {
+      long threadId = threadInfo.getThreadId();
+      long cpuTime = threadMxBean_.getThreadCpuTime(threadId);
+      if (cpuTime < 0 || threadId == ownThreadId)
+      {
+        continue;
+      }
+      Long previousCpuTime = cpuTimes_.get(threadId);
+      if (previousCpuTime != null && cpuTime > previousCpuTime)
+      {
+        // frames, thread names and stacks are defined before the sample refers to them
+        int stack = writeStack(out, threadInfo);
+        Long delta = stackDeltas.get(stack);
+        stackDeltas.put(stack, (delta != null ? delta : 0) + cpuTime
+            - previousCpuTime);
+      }
+      nextCpuTimes_.put(threadId, cpuTime);
+    }
+    // terminated threads are dropped by swapping the maps
+    Map<Long, Long> previousCpuTimes = cpuTimes_;
+    cpuTimes_ = nextCpuTimes_;
+    nextCpuTimes_ = previousCpuTimes;
+    nextCpuTimes_.clear();
+
+    out.write(RECORD_SAMPLE);
+    out.writeLong(stackRequestMicros);
+    out.writeInt(stackDeltas.size());
+    for (Entry<Integer, Long> stackDelta : stackDeltas.entrySet())
+    {
+      out.writeInt(stackDelta.getKey());
+      out.writeLong(stackDelta.getValue());
+    }
+  }
+
+  /**
+   * Returns the id of the stack of the given thread, defining it first if it is unknown.
+   */
+  private int writeStack(DataOutputStream out, ThreadInfo threadInfo)
+      throws IOException
+  {
+    StackTraceElement[] stackTrace = threadInfo.getStackTrace();
+    int[] frames = new int[stackTrace.length];
+    for (int i = 0; i < stackTrace.length; i++)
+    {
+      frames[i] = writeFrame(out, stackTrace[i]);
+    }
+    StackKey key = new StackKey(writeThreadName(out,
+        getThreadPoolName(threadInfo.getThreadName())), threadInfo
+        .getThreadState().ordinal(), frames);
+    Integer id = stacks_.get(key);
+    if (id == null)
+    {
+      id = stacks_.size();
+      stacks_.put(key, id);
+      out.write(RECORD_STACK);
+      out.writeInt(id);
+      out.writeInt(key.threadName_);
+      out.write(key.state_);
+      out.writeInt(frames.length);
+      for (int frame : frames)
+      {
+        out.writeInt(frame);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * Returns the name of the thread pool of the given thread, i.e. the thread name without trailing digits,
+   * see ThreadPoolStats.getThreadPoolName().
+   */
+  private static String getThreadPoolName(String threadName)
+  {
+    int end = threadName.length();
+    while (end > 0 && Character.isDigit(threadName.charAt(end - 1)))
+    {
+      end--;
+    }
+    if (end == threadName.length())
+    {
+      return threadName;
+    }
+    return threadName.substring(0, end) + "*";
+  }
+
+  private int writeThreadName(DataOutputStream out, String threadName)
+      throws IOException
+  {
+    Integer id = threadNames_.get(threadName);
+    if (id == null)
+    {
+      id = threadNames_.size();
+      threadNames_.put(threadName, id);
+      out.write(RECORD_THREAD);
+      out.writeInt(id);
+      out.writeUTF(threadName);
+    }
+    return id;
+  }
+
+  private int writeFrame(DataOutputStream out, StackTraceElement element)
+      throws IOException
+  {
+    Integer id = frames_.get(element);
+    if (id == null)
+    {
+      id = frames_.size();
+      frames_.put(element, id);
+      out.write(RECORD_FRAME);
+      out.writeInt(id);
+      out.writeUTF(element.getClassName());
+      out.writeUTF(element.getMethodName());
+      out.writeInt(element.getLineNumber());
+    }
+    return id;
+  }
+
+  /**
+   * Identifies the stacks which are aggregated: thread pool, thread state and frames.
+   */
+  private static final class StackKey
+  {
+    private final int   threadName_;
+
+    private final int   state_;
+
+    private final int[] frames_;
+
+    private final int   hash_;
+
+    StackKey(int threadName, int state, int[] frames)
+    {
+      threadName_ = threadName;
+      state_ = state;
+      frames_ = frames;
+      hash_ = (threadName * 31 + state) * 31 + Arrays.hashCode(frames);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return hash_;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+      if (!(obj instanceof StackKey))
+      {
+        return false;
+      }
+      StackKey other = (StackKey) obj;
+      return hash_ == other.hash_ && threadName_ == other.threadName_
+          && state_ == other.state_ && Arrays.equals(frames_, other.frames_);
+    }
+  }
+}
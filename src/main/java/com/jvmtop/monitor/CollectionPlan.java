@@ -0,0 +1,161 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.io.IOException;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Declares the MBean attributes which are collected on every refresh,
+ * and fetches them using a single getAttributes call per MBean.
+ *
+ * In contrast to reading the attributes through MXBean proxies,
+ * the number of remote calls per refresh is fixed and known in advance,
+ * and no attribute is fetched which has not been declared.
+ *
+ * @author paru
+ *
+ */
+public class CollectionPlan
+{
+  private Map<ObjectName, Set<String>>         attributes_ = new LinkedHashMap<ObjectName, Set<String>>();
+
+  private Map<ObjectName, Map<String, Object>> values_     = new HashMap<ObjectName, Map<String, Object>>();
+
+  /**
+   * Declares attributes of an MBean to be collected.
+   *
+   * @param name
+   * @param attributes
+   */
+  public void add(ObjectName name, String... attributes)
+  {
+    Set<String> names = attributes_.get(name);
+    if (names == null)
+    {
+      names = new LinkedHashSet<String>();
+      attributes_.put(name, names);
+    }
+    for (String attribute : attributes)
+    {
+      names.add(attribute);
+    }
+  }
+
+  /**
+   * Fetches the current values of all declared attributes,
+   * replacing the values of the previous invocation.
+   *
+   * @param connection
+   * @throws IOException
+   */
+  public void collect(MBeanServerConnection connection) throws IOException
+  {
+    Map<ObjectName, Map<String, Object>> values = new HashMap<ObjectName, Map<String, Object>>();
+    for (Map.Entry<ObjectName, Set<String>> entry : attributes_.entrySet())
+    {
+      Set<String> names = entry.getValue();
+      AttributeList list;
+      try
+      {
+        list = connection.getAttributes(entry.getKey(),
+            names.toArray(new String[names.size()]));
+      }
+      catch (InstanceNotFoundException e)
+      {
+        throw new IOException("MBean not found: " + entry.getKey(), e);
+      }
+      catch (ReflectionException e)
+      {
+        throw new IOException("Could not read the attributes of "
+            + entry.getKey(), e);
+      }
+      Map<String, Object> mbeanValues = new HashMap<String, Object>();
+      for (Object attribute : list)
+      {
+        mbeanValues.put(((Attribute) attribute).getName(),
+            ((Attribute) attribute).getValue());
+      }
+      values.put(entry.getKey(), mbeanValues);
+    }
+    values_ = values;
+  }
+
+  /**
+   * @return the number of remote calls of collect()
+   */
+  public int getRoundTrips()
+  {
+    return attributes_.size();
+  }
+
+  /**
+   * Returns the collected value of an attribute.
+   *
+   * @param name
+   * @param attribute
+   * @return
+   * @throws AttributeNotFoundException if the attribute has not been declared or could not be read
+   */
+  public Object get(ObjectName name, String attribute)
+      throws AttributeNotFoundException
+  {
+    Map<String, Object> mbeanValues = values_.get(name);
+    if (mbeanValues == null || !mbeanValues.containsKey(attribute))
+    {
+      throw new AttributeNotFoundException(attribute + " of " + name
+          + " has not been collected");
+    }
+    return mbeanValues.get(attribute);
+  }
+
+  public long getLong(ObjectName name, String attribute)
+      throws AttributeNotFoundException
+  {
+    return ((Number) get(name, attribute)).longValue();
+  }
+
+  public int getInt(ObjectName name, String attribute)
+      throws AttributeNotFoundException
+  {
+    return ((Number) get(name, attribute)).intValue();
+  }
+
+  public MemoryUsage getMemoryUsage(ObjectName name, String attribute)
+      throws AttributeNotFoundException
+  {
+    return MemoryUsage.from((CompositeData) get(name, attribute));
+  }
+}
@@ -0,0 +1,192 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMISocketFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * RMI socket factory which counts the bytes sent and received,
+ * to measure the network traffic caused by monitoring.
+ *
+ * Once installed, it is used by all RMI connections whose server did not specify
+ * a socket factory of its own (e.g. SSL), which includes the local JMX connector.
+ * The counters are global, they include all JMX connections of this process.
+ * Therefore it is only installed by the profile views (which report the traffic caused by sampling),
+ * before their connections are established.
+ *
+ * @author paru
+ *
+ */
+public class CountingSocketFactory extends RMISocketFactory
+{
+  private static final AtomicLong bytesSent_     = new AtomicLong();
+
+  private static final AtomicLong bytesReceived_ = new AtomicLong();
+
+  private static boolean          installed_     = false;
+
+  /**
+   * Installs the factory as the global RMI socket factory, has no effect if it is already installed.
+   *
+   * @return false if another factory has already been installed
+   */
+  public static synchronized boolean install()
+  {
+    if (!installed_)
+    {
+      try
+      {
+        RMISocketFactory.setSocketFactory(new CountingSocketFactory());
+        installed_ = true;
+      }
+      catch (IOException e)
+      {
+        Logger.getLogger("jvmtop").log(Level.FINE,
+            "RMI socket factory already set, not counting bytes", e);
+      }
+    }
+    return installed_;
+  }
+
+  public static synchronized boolean isInstalled()
+  {
+    return installed_;
+  }
+
+  /**
+   * @return the number of bytes sent over RMI connections, -1 if the factory is not installed
+   */
+  public static long getBytesSent()
+  {
+    return isInstalled() ? bytesSent_.get() : -1;
+  }
+
+  /**
+   * @return the number of bytes received over RMI connections, -1 if the factory is not installed
+   */
+  public static long getBytesReceived()
+  {
+    return isInstalled() ? bytesReceived_.get() : -1;
+  }
+
+  @Override
+  public Socket createSocket(String host, int port) throws IOException
+  {
+    return new CountingSocket(host, port);
+  }
+
+  @Override
+  public ServerSocket createServerSocket(int port) throws IOException
+  {
+    return new ServerSocket(port);
+  }
+
+  private static final class CountingSocket extends Socket
+  {
+    CountingSocket(String host, int port) throws IOException
+    {
+      super(host, port);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException
+    {
+      return new CountingInputStream(super.getInputStream());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException
+    {
+      return new CountingOutputStream(super.getOutputStream());
+    }
+  }
+
+  private static final class CountingInputStream extends FilterInputStream
+  {
+    CountingInputStream(InputStream in)
+    {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+      int b = super.read();
+      if (b >= 0)
+      {
+        bytesReceived_.incrementAndGet();
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+      int count = super.read(b, off, len);
+      if (count > 0)
+      {
+        bytesReceived_.addAndGet(count);
+      }
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+      long count = super.skip(n);
+      bytesReceived_.addAndGet(count);
+      return count;
+    }
+  }
+
+  private static final class CountingOutputStream extends FilterOutputStream
+  {
+    CountingOutputStream(OutputStream out)
+    {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException
+    {
+      out.write(b);
+      bytesSent_.incrementAndGet();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException
+    {
+      // FilterOutputStream would write byte by byte
+      out.write(b, off, len);
+      bytesSent_.addAndGet(len);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Detects deadlocks of jvms on a dedicated (daemon) thread, independent of the refresh.
+ *
+ * A detection is a safepoint operation in the monitored jvm which walks the lock graph of all threads,
+ * so it runs at a low frequency: each jvm is checked once per interval.
+ * Additionally, the time a detection takes is limited to a fraction (the cost budget) of the time between
+ * two detections of the same jvm, so the interval grows for jvms with expensive detections.
+ *
+ * The result of the most recent detection is stored in the VMInfo, see VMInfo.getDeadlockInfo().
+ *
+ * @author paru
+ *
+ */
+public class DeadlockDetector
+{
+  public static final long         DEFAULT_INTERVAL_MILLIS = 10000;
+
+  public static final double       DEFAULT_COST_BUDGET     = 0.01;
+
+  private ScheduledExecutorService executor_               = null;
+
+  private volatile long            intervalMillis_         = DEFAULT_INTERVAL_MILLIS;
+
+  private volatile double          costBudget_             = DEFAULT_COST_BUDGET;
+
+  private boolean                  stopped_                = false;
+
+  /**
+   * Periodically checks a single jvm, until it is detached.
+   */
+  private class Check implements Runnable
+  {
+    private final VMInfo vmInfo_;
+
+    private Check(VMInfo vmInfo)
+    {
+      vmInfo_ = vmInfo;
+    }
+
+    @Override
+    public void run()
+    {
+      VMInfoState state = vmInfo_.getState();
+      if (state != VMInfoState.ATTACHED
+          && state != VMInfoState.ATTACHED_UPDATE_ERROR)
+      {
+        return;
+      }
+      long start = System.nanoTime();
+      try
+      {
+        vmInfo_.setDeadlockInfo(detect(vmInfo_));
+      }
+      catch (Exception e)
+      {
+        // the previous result is kept, the update of the VMInfo reports connection problems
+        Logger.getLogger("jvmtop").log(Level.FINE,
+            "error during deadlock detection", e);
+      }
+      long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+          - start);
+      schedule(this,
+          Math.max(intervalMillis_, (long) (costMillis / costBudget_)));
+    }
+  }
+
+  /**
+   * Starts checking the given jvm periodically, beginning immediately.
+   *
+   * @param vmInfo
+   */
+  public void register(VMInfo vmInfo)
+  {
+    schedule(new Check(vmInfo), 0);
+  }
+
+  private synchronized void schedule(Check check, long delayMillis)
+  {
+    if (stopped_)
+    {
+      return;
+    }
+    if (executor_ == null)
+    {
+      executor_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+      {
+        @Override
+        public Thread newThread(Runnable r)
+        {
+          Thread thread = new Thread(r, "jvmtop deadlock detector");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    executor_.schedule(check, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Stops all checks.
+   */
+  public synchronized void stop()
+  {
+    stopped_ = true;
+    if (executor_ != null)
+    {
+      executor_.shutdownNow();
+      executor_ = null;
+    }
+  }
+
+  /**
+   * Detects deadlocks of the given jvm and captures their cycles.
+   * Deadlocks involving ownable synchronizers (e.g. ReentrantLock) are only found if the jvm supports it.
+   *
+   * @param vmInfo
+   * @return
+   * @throws Exception
+   */
+  public static DeadlockInfo detect(VMInfo vmInfo) throws Exception
+  {
+    ThreadMXBean threadMXBean = vmInfo.getThreadMXBean();
+    long[] threadIds = vmInfo.getStaticInfo().isLockUsageSupported()
+        ? threadMXBean.findDeadlockedThreads()
+        : threadMXBean.findMonitorDeadlockedThreads();
+    long detectionTime = System.currentTimeMillis();
+    if (threadIds == null)
+    {
+      return new DeadlockInfo(detectionTime, Collections.<String> emptyList());
+    }
+    return DeadlockInfo.capture(detectionTime,
+        threadMXBean.getThreadInfo(threadIds));
+  }
+
+  public long getIntervalMillis()
+  {
+    return intervalMillis_;
+  }
+
+  /**
+   * Sets the minimum time between two detections of the same jvm.
+   *
+   * @param intervalMillis
+   */
+  public void setIntervalMillis(long intervalMillis)
+  {
+    if (intervalMillis <= 0)
+    {
+      throw new IllegalArgumentException(
+          "Deadlock detection interval must be positive");
+    }
+    intervalMillis_ = intervalMillis;
+  }
+
+  public double getCostBudget()
+  {
+    return costBudget_;
+  }
+
+  /**
+   * Sets the fraction of time (e.g. 0.01 for 1%) the detection of a jvm may take.
+   *
+   * @param costBudget
+   */
+  public void setCostBudget(double costBudget)
+  {
+    if (costBudget <= 0 || costBudget > 1)
+    {
+      throw new IllegalArgumentException(
+          "Deadlock detection budget must be between 0% and 100%");
+    }
+    costBudget_ = costBudget;
+  }
+}
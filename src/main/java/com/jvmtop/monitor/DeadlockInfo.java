@@ -0,0 +1,121 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of a deadlock detection of a jvm.
+ *
+ * If threads are deadlocked, the cycle is captured as one description per thread,
+ * ordered along the lock owners ("thread waits for lock held by next thread").
+ *
+ * @author paru
+ *
+ */
+public class DeadlockInfo
+{
+  private final long         detectionTime_;
+
+  private final List<String> cycle_;
+
+  /**
+   * @param detectionTime the System.currentTimeMillis() of the detection
+   * @param cycle the descriptions of the deadlocked threads, empty if there is no deadlock
+   */
+  public DeadlockInfo(long detectionTime, List<String> cycle)
+  {
+    super();
+    detectionTime_ = detectionTime;
+    cycle_ = Collections.unmodifiableList(cycle);
+  }
+
+  /**
+   * Captures the cycle(s) of the given deadlocked threads.
+   *
+   * @param detectionTime
+   * @param threadInfos the infos of all deadlocked threads, might contain null values for terminated threads
+   * @return
+   */
+  public static DeadlockInfo capture(long detectionTime,
+      ThreadInfo[] threadInfos)
+  {
+    Map<Long, ThreadInfo> byId = new HashMap<Long, ThreadInfo>();
+    for (ThreadInfo threadInfo : threadInfos)
+    {
+      if (threadInfo != null)
+      {
+        byId.put(threadInfo.getThreadId(), threadInfo);
+      }
+    }
+    List<String> cycle = new ArrayList<String>();
+    for (ThreadInfo threadInfo : threadInfos)
+    {
+      // follow the lock owners, each thread is described once
+      ThreadInfo current = threadInfo != null ? byId.remove(threadInfo
+          .getThreadId()) : null;
+      while (current != null)
+      {
+        cycle.add(describe(current));
+        current = byId.remove(current.getLockOwnerId());
+      }
+    }
+    return new DeadlockInfo(detectionTime, cycle);
+  }
+
+  private static String describe(ThreadInfo threadInfo)
+  {
+    return "\"" + threadInfo.getThreadName() + "\" waits for "
+        + threadInfo.getLockName() + " held by \""
+        + threadInfo.getLockOwnerName() + "\"";
+  }
+
+  public boolean isDeadlocked()
+  {
+    return !cycle_.isEmpty();
+  }
+
+  /**
+   * @return the descriptions of the deadlocked threads, empty if there is no deadlock
+   */
+  public List<String> getCycle()
+  {
+    return cycle_;
+  }
+
+  public long getDetectionTime()
+  {
+    return detectionTime_;
+  }
+
+  /**
+   * @return the milliseconds since the detection
+   */
+  public long getAgeMillis()
+  {
+    return System.currentTimeMillis() - detectionTime_;
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import sun.jvmstat.monitor.HostIdentifier;
+import sun.jvmstat.monitor.Monitor;
+import sun.jvmstat.monitor.MonitoredHost;
+import sun.jvmstat.monitor.MonitoredVm;
+import sun.jvmstat.monitor.VmIdentifier;
+
+/**
+ * Reads the performance counters (hsperfdata) of a local jvm.
+ *
+ * The counters are read from shared memory, so reading them neither requires
+ * an attach nor causes any work in the monitored jvm.
+ * They are not available if the jvm runs with -XX:-UsePerfData.
+ *
+ * @author paru
+ *
+ */
+public class PerfCounters
+{
+  public static final String SAFEPOINT_TIME = "sun.rt.safepointTime";
+
+  public static final String SAFEPOINTS     = "sun.rt.safepoints";
+
+  private static final String TICK_FREQUENCY = "sun.os.hrt.frequency";
+
+  private MonitoredVm        monitoredVm_;
+
+  private long               ticksPerSecond_;
+
+  private PerfCounters(MonitoredVm monitoredVm)
+  {
+    super();
+    monitoredVm_ = monitoredVm;
+    ticksPerSecond_ = getLong(TICK_FREQUENCY);
+  }
+
+  /**
+   * Opens the performance counters of the given local jvm.
+   *
+   * @param pid
+   * @return
+   * @throws Exception if the counters are not available
+   */
+  public static PerfCounters open(int pid) throws Exception
+  {
+    MonitoredHost host = MonitoredHost.getMonitoredHost(new HostIdentifier(
+        (String) null));
+    return new PerfCounters(host.getMonitoredVm(new VmIdentifier(Integer
+        .toString(pid))));
+  }
+
+  /**
+   * @return the pids of all local jvms which publish performance counters
+   * @throws Exception
+   */
+  public static Set<Integer> getActiveVms() throws Exception
+  {
+    MonitoredHost host = MonitoredHost.getMonitoredHost(new HostIdentifier(
+        (String) null));
+    Set<Integer> pids = new HashSet<Integer>();
+    for (Object vmid : host.activeVms())
+    {
+      pids.add((Integer) vmid);
+    }
+    return pids;
+  }
+
+  /**
+   * @param name
+   * @return the current value of the given string counter (e.g. java.property.java.version), null if it does not exist
+   */
+  public String getString(String name)
+  {
+    try
+    {
+      Monitor monitor = monitoredVm_.findByName(name);
+      if (monitor != null && monitor.getValue() instanceof String)
+      {
+        return (String) monitor.getValue();
+      }
+    }
+    catch (Exception e)
+    {
+      // counters of terminated jvms are not readable anymore
+    }
+    return null;
+  }
+
+  /**
+   * @param name
+   * @return the current value of the given counter, -1 if it does not exist or is not numeric
+   */
+  public long getLong(String name)
+  {
+    try
+    {
+      Monitor monitor = monitoredVm_.findByName(name);
+      if (monitor != null && monitor.getValue() instanceof Number)
+      {
+        return ((Number) monitor.getValue()).longValue();
+      }
+    }
+    catch (Exception e)
+    {
+      // counters of terminated jvms are not readable anymore
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the value of a counter measured in ticks (e.g. sun.rt.safepointTime) in nanoseconds.
+   *
+   * @param name
+   * @return the time in nanoseconds, -1 if the counter is not available
+   */
+  public long getNanos(String name)
+  {
+    long ticks = getLong(name);
+    if (ticks < 0 || ticksPerSecond_ <= 0)
+    {
+      return -1;
+    }
+    return (long) (ticks * (1000000000d / ticksPerSecond_));
+  }
+
+  public void close()
+  {
+    monitoredVm_.detach();
+  }
+}
@@ -0,0 +1,368 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Provides the overview metrics of a local jvm, read from its performance counters (hsperfdata) only.
+ *
+ * In contrast to VMInfo, this neither attaches to the jvm nor starts its management agent,
+ * so it works for jvms of other users (if their hsperfdata files are readable)
+ * and causes no work in the monitored jvm.
+ * The process cpu time is not part of the performance counters, it is read from /proc
+ * and therefore only available on Linux.
+ *
+ * @author paru
+ *
+ */
+public class PerfDataVMInfo
+{
+  /**
+   * Comparator providing ordering of PerfDataVMInfo objects by the current cpu load (descending)
+   */
+  public static final Comparator<PerfDataVMInfo> CPU_LOAD_COMPARATOR = new CPULoadComparator();
+
+  private static final String                    HRT_TICKS           = "sun.os.hrt.ticks";
+
+  /**
+   * the unit of the cpu times in /proc/<pid>/stat (USER_HZ), which is 100 on all common platforms
+   */
+  private static final long                      CLOCK_TICKS_PER_SECOND = 100;
+
+  private static final int                       AVAILABLE_PROCESSORS = Runtime
+                                                                         .getRuntime()
+                                                                         .availableProcessors();
+
+  private final int                              vmid_;
+
+  private final PerfCounters                     perfCounters_;
+
+  private final String                           displayName_;
+
+  private final String                           shortVersion_;
+
+  private final String                           osUser_;
+
+  private final File                             procStatFile_;
+
+  /**
+   * the counter names of the heap spaces, resolved once as the generations do not change
+   */
+  private final List<String>                     heapUsedCounters_    = new ArrayList<String>();
+
+  private final List<String>                     heapMaxCounters_     = new ArrayList<String>();
+
+  private final List<String>                     nonHeapUsedCounters_ = new ArrayList<String>();
+
+  private final List<String>                     nonHeapMaxCounters_  = new ArrayList<String>();
+
+  private final List<String>                     gcTimeCounters_      = new ArrayList<String>();
+
+  /**
+   * true if the max capacity of each generation is the max capacity of the whole heap (G1)
+   */
+  private boolean                                sharedHeapMax_       = false;
+
+  private long                                   heapUsed_            = -1;
+
+  private long                                   heapMax_             = -1;
+
+  private long                                   nonHeapUsed_         = -1;
+
+  private long                                   nonHeapMax_          = -1;
+
+  private long                                   threadCount_         = -1;
+
+  private double                                 cpuLoad_             = -1;
+
+  private double                                 gcLoad_              = 0;
+
+  private long                                   lastTime_            = -1;
+
+  private long                                   lastCpuTime_         = -1;
+
+  private long                                   lastGcTime_          = -1;
+
+  private PerfDataVMInfo(int vmid, PerfCounters perfCounters)
+  {
+    super();
+    vmid_ = vmid;
+    perfCounters_ = perfCounters;
+    displayName_ = getOrDefault(perfCounters.getString("sun.rt.javaCommand"),
+        Integer.toString(vmid));
+    String version = perfCounters.getString("java.property.java.version");
+    String vendor = perfCounters.getString("java.property.java.vm.vendor");
+    shortVersion_ = version != null && vendor != null ? VMStaticInfo
+        .extractShortVer(version, vendor) : "n/a";
+    osUser_ = getOrDefault(findOSUser(vmid), "n/a");
+    procStatFile_ = new File("/proc/" + vmid + "/stat");
+    resolveCounters();
+  }
+
+  /**
+   * Opens the performance counters of the given local jvm.
+   *
+   * @param vmid
+   * @return
+   * @throws Exception if the counters are not available
+   */
+  public static PerfDataVMInfo open(int vmid) throws Exception
+  {
+    return new PerfDataVMInfo(vmid, PerfCounters.open(vmid));
+  }
+
+  private void resolveCounters()
+  {
+    sharedHeapMax_ = "GarbageFirst".equals(perfCounters_
+        .getString("sun.gc.policy.name"));
+    for (int gen = 0; perfCounters_.getString(generation(gen) + ".name") != null; gen++)
+    {
+      boolean heap = !"perm".equals(perfCounters_.getString(generation(gen)
+          + ".name"));
+      List<String> usedCounters = heap ? heapUsedCounters_
+          : nonHeapUsedCounters_;
+      for (int space = 0; perfCounters_.getLong(generation(gen) + ".space."
+          + space + ".used") >= 0; space++)
+      {
+        usedCounters.add(generation(gen) + ".space." + space + ".used");
+      }
+      (heap ? heapMaxCounters_ : nonHeapMaxCounters_).add(generation(gen)
+          + ".maxCapacity");
+    }
+    // the generations of java 8 and newer do not contain the class metadata anymore
+    if (perfCounters_.getLong("sun.gc.metaspace.used") >= 0)
+    {
+      nonHeapUsedCounters_.add("sun.gc.metaspace.used");
+      nonHeapMaxCounters_.add("sun.gc.metaspace.maxCapacity");
+    }
+    for (int collector = 0; perfCounters_.getLong("sun.gc.collector."
+        + collector + ".time") >= 0; collector++)
+    {
+      gcTimeCounters_.add("sun.gc.collector." + collector + ".time");
+    }
+  }
+
+  private static String generation(int gen)
+  {
+    return "sun.gc.generation." + gen;
+  }
+
+  /**
+   * Reads the current values of the counters and calculates the loads since the last update.
+   */
+  public void update()
+  {
+    heapUsed_ = sum(heapUsedCounters_);
+    heapMax_ = sharedHeapMax_ ? max(heapMaxCounters_) : sum(heapMaxCounters_);
+    nonHeapUsed_ = sum(nonHeapUsedCounters_);
+    nonHeapMax_ = sum(nonHeapMaxCounters_);
+    threadCount_ = perfCounters_.getLong("java.threads.live");
+
+    long time = perfCounters_.getNanos(HRT_TICKS);
+    long cpuTime = readCpuTime();
+    long gcTime = 0;
+    for (String counter : gcTimeCounters_)
+    {
+      gcTime += Math.max(0, perfCounters_.getNanos(counter));
+    }
+    if (lastTime_ >= 0 && time > lastTime_)
+    {
+      long deltaTime = time - lastTime_;
+      cpuLoad_ = cpuTime >= 0 && lastCpuTime_ >= 0 ? Math.min(1.0,
+          (double) (cpuTime - lastCpuTime_)
+              / (deltaTime * AVAILABLE_PROCESSORS)) : -1;
+      gcLoad_ = Math.min(1.0, (double) (gcTime - lastGcTime_) / deltaTime);
+    }
+    lastTime_ = time;
+    lastCpuTime_ = cpuTime;
+    lastGcTime_ = gcTime;
+  }
+
+  private long sum(List<String> counters)
+  {
+    long sum = 0;
+    for (String counter : counters)
+    {
+      sum += Math.max(0, perfCounters_.getLong(counter));
+    }
+    return sum;
+  }
+
+  private long max(List<String> counters)
+  {
+    long max = 0;
+    for (String counter : counters)
+    {
+      max = Math.max(max, perfCounters_.getLong(counter));
+    }
+    return max;
+  }
+
+  /**
+   * Reads the cpu time (user + system) of the process from /proc/<pid>/stat.
+   *
+   * @return the cpu time in nanoseconds, -1 if not available
+   */
+  private long readCpuTime()
+  {
+    if (!procStatFile_.exists())
+    {
+      return -1;
+    }
+    try
+    {
+      BufferedReader reader = new BufferedReader(new FileReader(procStatFile_));
+      try
+      {
+        String line = reader.readLine();
+        // the command (2nd field) is enclosed by parentheses and might contain spaces
+        String[] fields = line.substring(line.lastIndexOf(')') + 2).split(" ");
+        // utime and stime are the 14th and 15th field
+        long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+        return ticks * (1000000000L / CLOCK_TICKS_PER_SECOND);
+      }
+      finally
+      {
+        reader.close();
+      }
+    }
+    catch (IOException e)
+    {
+      return -1;
+    }
+    catch (RuntimeException e)
+    {
+      // unexpected format
+      return -1;
+    }
+  }
+
+  /**
+   * Determines the owner of a jvm by the hsperfdata_<user> directory containing its counters.
+   *
+   * @param vmid
+   * @return the user name, null if not found
+   */
+  private static String findOSUser(int vmid)
+  {
+    File[] dirs = new File(System.getProperty("java.io.tmpdir")).listFiles();
+    if (dirs == null)
+    {
+      return null;
+    }
+    for (File dir : dirs)
+    {
+      if (dir.getName().startsWith("hsperfdata_")
+          && new File(dir, Integer.toString(vmid)).exists())
+      {
+        return dir.getName().substring("hsperfdata_".length());
+      }
+    }
+    return null;
+  }
+
+  private static String getOrDefault(String value, String defaultValue)
+  {
+    return value != null ? value : defaultValue;
+  }
+
+  public void close()
+  {
+    perfCounters_.close();
+  }
+
+  public int getId()
+  {
+    return vmid_;
+  }
+
+  public String getDisplayName()
+  {
+    return displayName_;
+  }
+
+  public String getVMVersion()
+  {
+    return shortVersion_;
+  }
+
+  public String getOSUser()
+  {
+    return osUser_;
+  }
+
+  public long getHeapUsed()
+  {
+    return heapUsed_;
+  }
+
+  public long getHeapMax()
+  {
+    return heapMax_;
+  }
+
+  public long getNonHeapUsed()
+  {
+    return nonHeapUsed_;
+  }
+
+  public long getNonHeapMax()
+  {
+    return nonHeapMax_;
+  }
+
+  public long getThreadCount()
+  {
+    return threadCount_;
+  }
+
+  /**
+   * @return the share of the cpu time of all processors used by the jvm, -1 if not available
+   */
+  public double getCpuLoad()
+  {
+    return cpuLoad_;
+  }
+
+  /**
+   * @return the share of the elapsed time the jvm spent in gc pauses
+   */
+  public double getGcLoad()
+  {
+    return gcLoad_;
+  }
+
+  private static final class CPULoadComparator implements Comparator<PerfDataVMInfo>
+  {
+    @Override
+    public int compare(PerfDataVMInfo o1, PerfDataVMInfo o2)
+    {
+      return Double.compare(o2.getCpuLoad(), o1.getCpuLoad());
+    }
+  }
+}
@@ -22,6 +22,7 @@ package com.jvmtop.monitor;
 
 import java.io.IOException;
 import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryUsage;
 import java.lang.management.OperatingSystemMXBean;
@@ -29,13 +30,16 @@ import java.lang.management.RuntimeMXBean;
 import java.lang.management.ThreadMXBean;
 import java.lang.reflect.InvocationTargetException;
 import java.rmi.ConnectException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.ObjectName;
 
 import com.jvmtop.openjdk.tools.ConnectionState;
 import com.jvmtop.openjdk.tools.LocalVirtualMachine;
@@ -141,15 +145,45 @@ public class VMInfo
 
   private ClassLoadingMXBean                                      classLoadingMXBean_;
 
-  private boolean                                                 deadlocksDetected_   = false;
+  /**
+   * the result of the most recent deadlock detection, null if not detected yet
+   */
+  private volatile DeadlockInfo                                   deadlockInfo_        = null;
 
-  private String                                                  vmVersion_           = null;
+  private long                                                    threadCount_;
 
-  private String                                                  osUser_;
+  private long                                                    uptime_;
 
-  private long                                                    threadCount_;
+  private long                                                    peakThreadCount_;
 
-  private Map<String, String>                                     systemProperties_;
+  private long                                                    totalStartedThreadCount_;
+
+  /**
+   * jvm-constant data, fetched once per connection
+   */
+  private VMStaticInfo                                            staticInfo_;
+
+  /**
+   * the attributes fetched on every update, created on the first update
+   */
+  private CollectionPlan                                          collectionPlan_;
+
+  private ObjectName                                              memoryName_;
+
+  private ObjectName                                              runtimeName_;
+
+  private ObjectName                                              osName_;
+
+  private ObjectName                                              classLoadingName_;
+
+  private ObjectName                                              threadingName_;
+
+  private List<ObjectName>                                        gcNames_;
+
+  /**
+   * the values of the most recent update, published for other threads
+   */
+  private volatile VMSnapshot                                     snapshot_;
 
   /**
    * @param lastCPUProcessTime
@@ -290,6 +324,7 @@ public class VMInfo
     VMInfo vmInfo = new VMInfo();
     vmInfo.state_ = state;
     vmInfo.localVm_ = localVm;
+    vmInfo.snapshot_ = new VMSnapshot(vmInfo);
     return vmInfo;
   }
 
@@ -301,12 +336,33 @@ public class VMInfo
     return state_;
   }
 
+  /**
+   * @return the values of the most recent update, which can be read by any thread
+   */
+  public VMSnapshot getSnapshot()
+  {
+    return snapshot_;
+  }
+
   /**
    * Updates all jvm metrics to the most recent remote values
+   * and publishes them as a new snapshot.
    *
    * @throws Exception
    */
   public void update() throws Exception
+  {
+    try
+    {
+      updateMetrics();
+    }
+    finally
+    {
+      snapshot_ = new VMSnapshot(this);
+    }
+  }
+
+  private void updateMetrics() throws Exception
   {
     if (state_ == VMInfoState.ERROR_DURING_ATTACH
         || state_ == VMInfoState.DETACHED
@@ -330,18 +386,25 @@ public class VMInfo
       gcMXBeans = proxyClient.getGarbageCollectorMXBeans();
       classLoadingMXBean_ = proxyClient.getClassLoadingMXBean();
       memoryMXBean = proxyClient.getMemoryMXBean();
-      heapMemoryUsage = memoryMXBean.getHeapMemoryUsage();
-      nonHeapMemoryUsage = memoryMXBean.getNonHeapMemoryUsage();
       threadMXBean = proxyClient.getThreadMXBean();
 
-      //TODO: fetch jvm-constant data only once
-      systemProperties_ = runtimeMXBean.getSystemProperties();
-      vmVersion_ = extractShortVer();
-      osUser_ = systemProperties_.get("user.name");
-      updateInternal();
+      if (staticInfo_ == null || !staticInfo_.isValidFor(proxyClient))
+      {
+        // jvm-constant data is fetched only once per connection
+        staticInfo_ = VMStaticInfo.load(proxyClient);
+        collectionPlan_ = null;
+      }
+      if (collectionPlan_ == null)
+      {
+        collectionPlan_ = createCollectionPlan();
+      }
+      collectionPlan_.collect(proxyClient.getMBeanServerConnection());
+      heapMemoryUsage = collectionPlan_.getMemoryUsage(memoryName_,
+          "HeapMemoryUsage");
+      nonHeapMemoryUsage = collectionPlan_.getMemoryUsage(memoryName_,
+          "NonHeapMemoryUsage");
 
-      deadlocksDetected_ = threadMXBean.findDeadlockedThreads() != null
-          || threadMXBean.findMonitorDeadlockedThreads() != null;
+      updateInternal();
 
     }
     catch (Throwable e)
@@ -359,16 +422,55 @@ public class VMInfo
     }
   }
 
+  /**
+   * Declares all attributes which are read on every update, so they can be fetched
+   * using a single remote call per MBean.
+   *
+   * @return
+   * @throws Exception
+   */
+  private CollectionPlan createCollectionPlan() throws Exception
+  {
+    memoryName_ = new ObjectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+    runtimeName_ = new ObjectName(ManagementFactory.RUNTIME_MXBEAN_NAME);
+    osName_ = new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+    classLoadingName_ = new ObjectName(
+        ManagementFactory.CLASS_LOADING_MXBEAN_NAME);
+    threadingName_ = new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+    gcNames_ = new ArrayList<ObjectName>(proxyClient.getMBeanServerConnection()
+        .queryNames(
+            new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE
+                + ",*"), null));
+
+    CollectionPlan plan = new CollectionPlan();
+    plan.add(memoryName_, "HeapMemoryUsage", "NonHeapMemoryUsage");
+    plan.add(runtimeName_, "Uptime");
+    plan.add(osName_, "ProcessCpuTime");
+    plan.add(classLoadingName_, "TotalLoadedClassCount");
+    plan.add(threadingName_, "ThreadCount", "PeakThreadCount",
+        "TotalStartedThreadCount");
+    for (ObjectName gcName : gcNames_)
+    {
+      plan.add(gcName, "CollectionTime", "CollectionCount");
+    }
+    return plan;
+  }
+
   /**
    * calculates internal delta metrics
    * @throws Exception
    */
   private void updateInternal() throws Exception
   {
-    long uptime = runtimeMXBean.getUptime();
+    long uptime = collectionPlan_.getLong(runtimeName_, "Uptime");
+    uptime_ = uptime;
 
-    long cpuTime = proxyClient.getProcessCpuTime();
-    //long cpuTime = osBean.getProcessCpuTime();
+    long cpuTime = collectionPlan_.getLong(osName_, "ProcessCpuTime");
+    if (LocalVirtualMachine.isJ9Mode())
+    {
+      // J9 returns the value in "100ns units", see ProxyClient.getProcessCpuTime()
+      cpuTime *= 100;
+    }
     long gcTime = sumGCTimes();
     gcCount = sumGCCount();
     if (lastUpTime > 0 && lastCPUTime > 0 && gcTime > 0)
@@ -385,9 +487,14 @@ public class VMInfo
     lastCPUTime = cpuTime;
     lastGcTime = gcTime;
 
-    totalLoadedClassCount_ = classLoadingMXBean_.getTotalLoadedClassCount();
+    totalLoadedClassCount_ = collectionPlan_.getLong(classLoadingName_,
+        "TotalLoadedClassCount");
 
-    threadCount_ = threadMXBean.getThreadCount();
+    threadCount_ = collectionPlan_.getInt(threadingName_, "ThreadCount");
+    peakThreadCount_ = collectionPlan_.getInt(threadingName_,
+        "PeakThreadCount");
+    totalStartedThreadCount_ = collectionPlan_.getLong(threadingName_,
+        "TotalStartedThreadCount");
   }
 
   /**
@@ -403,19 +510,19 @@ public class VMInfo
       return 0.0;
     }
     return Math.min(99.0,
-        deltaTime / (deltaUptime * osBean.getAvailableProcessors()));
+        deltaTime / (deltaUptime * staticInfo_.getAvailableProcessors()));
   }
 
   /**
    * Returns the sum of all GC times
    * @return
    */
-  private long sumGCTimes()
+  private long sumGCTimes() throws AttributeNotFoundException
   {
     long sum = 0;
-    for (java.lang.management.GarbageCollectorMXBean mxBean : gcMXBeans)
+    for (ObjectName gcName : gcNames_)
     {
-      sum += mxBean.getCollectionTime();
+      sum += collectionPlan_.getLong(gcName, "CollectionTime");
     }
     return sum;
   }
@@ -424,12 +531,12 @@ public class VMInfo
    * Returns the sum of all GC invocations
    * @return
    */
-  private long sumGCCount()
+  private long sumGCCount() throws AttributeNotFoundException
   {
     long sum = 0;
-    for (java.lang.management.GarbageCollectorMXBean mxBean : gcMXBeans)
+    for (ObjectName gcName : gcNames_)
     {
-      sum += mxBean.getCollectionCount();
+      sum += collectionPlan_.getLong(gcName, "CollectionCount");
     }
     return sum;
   }
@@ -459,9 +566,44 @@ public class VMInfo
     return totalLoadedClassCount_;
   }
 
+  /**
+   * @return true if the most recent deadlock detection found deadlocked threads, see DeadlockDetector
+   */
   public boolean hasDeadlockThreads()
   {
-    return deadlocksDetected_;
+    DeadlockInfo deadlockInfo = deadlockInfo_;
+    return deadlockInfo != null && deadlockInfo.isDeadlocked();
+  }
+
+  /**
+   * @return the result of the most recent deadlock detection, null if the jvm has not been checked yet
+   */
+  public DeadlockInfo getDeadlockInfo()
+  {
+    return deadlockInfo_;
+  }
+
+  public void setDeadlockInfo(DeadlockInfo deadlockInfo)
+  {
+    deadlockInfo_ = deadlockInfo;
+  }
+
+  /**
+   * @return the uptime of the jvm in milliseconds
+   */
+  public long getUptime()
+  {
+    return uptime_;
+  }
+
+  public long getPeakThreadCount()
+  {
+    return peakThreadCount_;
+  }
+
+  public long getTotalStartedThreadCount()
+  {
+    return totalStartedThreadCount_;
   }
 
   public long getThreadCount()
@@ -498,6 +640,11 @@ public class VMInfo
     return localVm_.displayName();
   }
 
+  public LocalVirtualMachine getLocalVirtualMachine()
+  {
+    return localVm_;
+  }
+
   public Integer getId()
   {
     return localVm_.vmid();
@@ -525,12 +672,12 @@ public class VMInfo
 
   public String getVMVersion()
   {
-    return vmVersion_;
+    return staticInfo_.getShortVersion();
   }
 
   public String getOSUser()
   {
-    return osUser_;
+    return staticInfo_.getSystemProperties().get("user.name");
   }
 
   public long getGcTime()
@@ -580,36 +727,14 @@ public class VMInfo
 
   public Map<String, String> getSystemProperties()
   {
-    return systemProperties_;
+    return staticInfo_.getSystemProperties();
   }
 
   /**
-   * Extracts the jvmtop "short version" out of different properties
-   * TODO: should this be refactored?
-   * @param runtimeMXBean
-   * @return
+   * @return the jvm-constant data, fetched once per connection
    */
-  private String extractShortVer()
+  public VMStaticInfo getStaticInfo()
   {
-    String vmVer = systemProperties_.get("java.runtime.version");
-
-    String vmVendor = systemProperties_.get("java.vendor");
-
-    Pattern pattern = Pattern.compile("[0-9]\\.([0-9])\\.0_([0-9]+)-.*");
-    Matcher matcher = pattern.matcher(vmVer);
-    if (matcher.matches())
-    {
-      return vmVendor.charAt(0) + matcher.group(1) + "U" + matcher.group(2);
-    }
-    else
-    {
-      pattern = Pattern.compile(".*-(.*)_.*");
-      matcher = pattern.matcher(vmVer);
-      if (matcher.matches())
-      {
-        return vmVendor.charAt(0) + matcher.group(1).substring(2, 6);
-      }
-      return vmVer;
-    }
+    return staticInfo_;
   }
 }
@@ -0,0 +1,171 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.util.Comparator;
+
+/**
+ * Immutable, consistent view of the overview metrics of a VMInfo, captured at the end of an update.
+ *
+ * Updates might run on other threads (see VMUpdateEngine), so views which
+ * do not update the VMInfo themselves must only read its published snapshot.
+ *
+ * @author paru
+ *
+ */
+public class VMSnapshot
+{
+  /**
+   * Comparator providing ordering of VMSnapshot objects by the cpu load (descending)
+   */
+  public static final Comparator<VMSnapshot> CPU_LOAD_COMPARATOR = new CPULoadComparator();
+
+  private final VMInfo                       vmInfo_;
+
+  private final VMInfoState                  state_;
+
+  private final Integer                      id_;
+
+  private final String                       displayName_;
+
+  private final long                         heapUsed_;
+
+  private final long                         heapMax_;
+
+  private final long                         nonHeapUsed_;
+
+  private final long                         nonHeapMax_;
+
+  private final double                       cpuLoad_;
+
+  private final double                       gcLoad_;
+
+  private final String                       vmVersion_;
+
+  private final String                       osUser_;
+
+  private final long                         threadCount_;
+
+  /**
+   * Captures the current values of the given VMInfo,
+   * must be invoked by the thread which updates it.
+   *
+   * @param vmInfo
+   */
+  VMSnapshot(VMInfo vmInfo)
+  {
+    super();
+    vmInfo_ = vmInfo;
+    state_ = vmInfo.getState();
+    boolean known = vmInfo.getLocalVirtualMachine() != null;
+    id_ = known ? vmInfo.getId() : null;
+    displayName_ = known ? vmInfo.getDisplayName() : "";
+    // the metrics are only available once an update has succeeded
+    boolean updated = state_ == VMInfoState.ATTACHED;
+    heapUsed_ = updated ? vmInfo.getHeapUsed() : 0;
+    heapMax_ = updated ? vmInfo.getHeapMax() : 0;
+    nonHeapUsed_ = updated ? vmInfo.getNonHeapUsed() : 0;
+    nonHeapMax_ = updated ? vmInfo.getNonHeapMax() : 0;
+    cpuLoad_ = updated ? vmInfo.getCpuLoad() : 0;
+    gcLoad_ = updated ? vmInfo.getGcLoad() : 0;
+    vmVersion_ = updated ? vmInfo.getVMVersion() : null;
+    osUser_ = updated ? vmInfo.getOSUser() : null;
+    threadCount_ = updated ? vmInfo.getThreadCount() : 0;
+  }
+
+  /**
+   * @return the VMInfo this snapshot has been captured of
+   */
+  public VMInfo getVMInfo()
+  {
+    return vmInfo_;
+  }
+
+  public VMInfoState getState()
+  {
+    return state_;
+  }
+
+  public Integer getId()
+  {
+    return id_;
+  }
+
+  public String getDisplayName()
+  {
+    return displayName_;
+  }
+
+  public long getHeapUsed()
+  {
+    return heapUsed_;
+  }
+
+  public long getHeapMax()
+  {
+    return heapMax_;
+  }
+
+  public long getNonHeapUsed()
+  {
+    return nonHeapUsed_;
+  }
+
+  public long getNonHeapMax()
+  {
+    return nonHeapMax_;
+  }
+
+  public double getCpuLoad()
+  {
+    return cpuLoad_;
+  }
+
+  public double getGcLoad()
+  {
+    return gcLoad_;
+  }
+
+  public String getVMVersion()
+  {
+    return vmVersion_;
+  }
+
+  public String getOSUser()
+  {
+    return osUser_;
+  }
+
+  public long getThreadCount()
+  {
+    return threadCount_;
+  }
+
+  private static final class CPULoadComparator implements
+      Comparator<VMSnapshot>
+  {
+    @Override
+    public int compare(VMSnapshot o1, VMSnapshot o2)
+    {
+      return Double.compare(o2.getCpuLoad(), o1.getCpuLoad());
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.RuntimeMXBean;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServerConnection;
+
+import com.jvmtop.openjdk.tools.ProxyClient;
+
+/**
+ * Data of a monitored jvm which does not change while it is running
+ * (system properties, arguments, version, capabilities).
+ *
+ * It is fetched once per connection, so refreshes only need to transfer counters.
+ *
+ * @author paru
+ *
+ */
+public class VMStaticInfo
+{
+  private final MBeanServerConnection connection_;
+
+  private final Map<String, String>   systemProperties_;
+
+  private final List<String>          inputArguments_;
+
+  private final String                vmVendor_;
+
+  private final String                vmName_;
+
+  private final String                vmVersion_;
+
+  private final String                shortVersion_;
+
+  private final int                   availableProcessors_;
+
+  private final boolean               platformMXBeans_;
+
+  private final boolean               lockUsageSupported_;
+
+  private VMStaticInfo(MBeanServerConnection connection,
+      RuntimeMXBean runtimeMXBean, OperatingSystemMXBean osBean,
+      boolean platformMXBeans, boolean lockUsageSupported)
+  {
+    super();
+    connection_ = connection;
+    systemProperties_ = Collections.unmodifiableMap(runtimeMXBean
+        .getSystemProperties());
+    inputArguments_ = Collections.unmodifiableList(runtimeMXBean
+        .getInputArguments());
+    vmVendor_ = runtimeMXBean.getVmVendor();
+    vmName_ = runtimeMXBean.getVmName();
+    vmVersion_ = runtimeMXBean.getVmVersion();
+    availableProcessors_ = osBean.getAvailableProcessors();
+    platformMXBeans_ = platformMXBeans;
+    lockUsageSupported_ = lockUsageSupported;
+    shortVersion_ = extractShortVer(systemProperties_
+        .get("java.runtime.version"), systemProperties_.get("java.vendor"));
+  }
+
+  /**
+   * Fetches the static data of the jvm the given client is connected to.
+   *
+   * The proxies use the plain connection, so the attributes are not added
+   * to the snapshot cache which is refreshed on every update.
+   *
+   * @param proxyClient
+   * @return
+   * @throws IOException
+   */
+  public static VMStaticInfo load(ProxyClient proxyClient) throws IOException
+  {
+    MBeanServerConnection connection = proxyClient.getMBeanServerConnection();
+    return new VMStaticInfo(connection, ManagementFactory
+        .newPlatformMXBeanProxy(connection,
+            ManagementFactory.RUNTIME_MXBEAN_NAME, RuntimeMXBean.class),
+        ManagementFactory.newPlatformMXBeanProxy(connection,
+            ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME,
+            OperatingSystemMXBean.class), proxyClient.hasPlatformMXBeans(),
+        proxyClient.isLockUsageSupported());
+  }
+
+  /**
+   * @param proxyClient
+   * @return true if this data has been fetched using the current connection of the given client,
+   *         false if it has reconnected since then
+   */
+  public boolean isValidFor(ProxyClient proxyClient)
+  {
+    return connection_ == proxyClient.getMBeanServerConnection();
+  }
+
+  /**
+   * Extracts the jvmtop "short version" out of different properties
+   * @param vmVer the runtime version, e.g. 1.7.0_51-b13
+   * @param vmVendor
+   * @return
+   */
+  static String extractShortVer(String vmVer, String vmVendor)
+  {
+    Pattern pattern = Pattern.compile("[0-9]\\.([0-9])\\.0_([0-9]+)(-.*)?");
+    Matcher matcher = pattern.matcher(vmVer);
+    if (matcher.matches())
+    {
+      return vmVendor.charAt(0) + matcher.group(1) + "U" + matcher.group(2);
+    }
+    else
+    {
+      pattern = Pattern.compile(".*-(.*)_.*");
+      matcher = pattern.matcher(vmVer);
+      if (matcher.matches())
+      {
+        return vmVendor.charAt(0) + matcher.group(1).substring(2, 6);
+      }
+      return vmVer;
+    }
+  }
+
+  public Map<String, String> getSystemProperties()
+  {
+    return systemProperties_;
+  }
+
+  public List<String> getInputArguments()
+  {
+    return inputArguments_;
+  }
+
+  public String getVmVendor()
+  {
+    return vmVendor_;
+  }
+
+  public String getVmName()
+  {
+    return vmName_;
+  }
+
+  public String getVmVersion()
+  {
+    return vmVersion_;
+  }
+
+  /**
+   * @return the jvmtop "short version", e.g. "O7U51"
+   */
+  public String getShortVersion()
+  {
+    return shortVersion_;
+  }
+
+  public int getAvailableProcessors()
+  {
+    return availableProcessors_;
+  }
+
+  public boolean hasPlatformMXBeans()
+  {
+    return platformMXBeans_;
+  }
+
+  public boolean isLockUsageSupported()
+  {
+    return lockUsageSupported_;
+  }
+}
@@ -0,0 +1,338 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jvmtop.openjdk.tools.LocalVirtualMachine;
+
+/**
+ * Attaches to and updates many jvms in parallel, using a bounded pool of (daemon) worker threads.
+ *
+ * The caller waits for the results up to a deadline only, so a single hung jvm
+ * (or one which is paused by a long garbage collection) does not delay the others.
+ * A jvm whose update did not complete in time is stale: it keeps its last known values
+ * and is not updated again before the pending update has completed.
+ *
+ * Remote calls might block forever (e.g. if the jvm has been suspended).
+ * A task which runs longer than the hang timeout is considered hung: an additional worker thread
+ * is started for it, so hung jvms cannot occupy the pool and starve the other ones.
+ * It is removed once the hung task has returned.
+ *
+ * All methods must be invoked by the same (rendering) thread.
+ *
+ * @author paru
+ *
+ */
+public class VMUpdateEngine
+{
+  public static final int          DEFAULT_THREADS        = 8;
+
+  public static final long         DEFAULT_TIMEOUT_MILLIS = 500;
+
+  public static final long         HANG_TIMEOUT_MILLIS    = 10000;
+
+  private final int                threads_;
+
+  private final ThreadPoolExecutor executor_;
+
+  private volatile long            timeoutMillis_         = DEFAULT_TIMEOUT_MILLIS;
+
+  private Map<VMInfo, Task<?>>     pendingUpdates_        = new HashMap<VMInfo, Task<?>>();
+
+  private List<Task<VMInfo>>       pendingAttaches_       = new ArrayList<Task<VMInfo>>();
+
+  /**
+   * the running tasks which exceeded the hang timeout, an additional worker has been started for each of them
+   */
+  private Set<Task<?>>             hungTasks_             = new HashSet<Task<?>>();
+
+  /**
+   * the tasks submitted since the last update(), only these are awaited:
+   * a task which already missed a deadline would delay the rendering again
+   */
+  private List<Future<?>>          newTasks_              = new ArrayList<Future<?>>();
+
+  public VMUpdateEngine()
+  {
+    this(DEFAULT_THREADS);
+  }
+
+  public VMUpdateEngine(int threads)
+  {
+    super();
+    threads_ = threads;
+    executor_ = new ThreadPoolExecutor(threads, threads, 0,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+        new ThreadFactory()
+        {
+          @Override
+          public Thread newThread(Runnable r)
+          {
+            Thread thread = new Thread(r, "jvmtop updater");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+  }
+
+  /**
+   * Attaches to the given jvm in the background, see getAttachedVMs().
+   *
+   * @param localvm
+   * @param vmid
+   */
+  public void attach(final LocalVirtualMachine localvm, final int vmid)
+  {
+    Task<VMInfo> attach = new Task<VMInfo>(new Callable<VMInfo>()
+    {
+      @Override
+      public VMInfo call() throws Exception
+      {
+        return VMInfo.processNewVM(localvm, vmid);
+      }
+    });
+    executor_.execute(attach);
+    pendingAttaches_.add(attach);
+    newTasks_.add(attach);
+  }
+
+  /**
+   * Updates the given jvms in parallel and waits until all updates (and the attaches started since the last update)
+   * have been completed, but not longer than the timeout.
+   * Stale jvms are not updated again, and not awaited.
+   *
+   * @param vmInfos
+   * @throws InterruptedException
+   */
+  public void update(Collection<VMInfo> vmInfos) throws InterruptedException
+  {
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(timeoutMillis_);
+    for (final VMInfo vmInfo : vmInfos)
+    {
+      if (!isStale(vmInfo))
+      {
+        Task<Void> update = new Task<Void>(new Callable<Void>()
+        {
+          @Override
+          public Void call() throws Exception
+          {
+            vmInfo.update();
+            return null;
+          }
+        });
+        executor_.execute(update);
+        pendingUpdates_.put(vmInfo, update);
+        newTasks_.add(update);
+      }
+    }
+    for (Future<?> task : newTasks_)
+    {
+      await(task, deadline);
+    }
+    newTasks_.clear();
+    adaptToHungTasks();
+  }
+
+  /**
+   * Adds a worker for each task which exceeded the hang timeout,
+   * and removes the worker again once the task has returned.
+   */
+  private void adaptToHungTasks()
+  {
+    for (Iterator<Task<?>> iterator = hungTasks_.iterator(); iterator
+        .hasNext();)
+    {
+      if (iterator.next().isDone())
+      {
+        iterator.remove();
+      }
+    }
+    long now = System.nanoTime();
+    long hangTimeout = TimeUnit.MILLISECONDS.toNanos(HANG_TIMEOUT_MILLIS);
+    for (Task<?> update : pendingUpdates_.values())
+    {
+      if (update.isHung(now, hangTimeout))
+      {
+        hungTasks_.add(update);
+      }
+    }
+    for (Task<VMInfo> attach : pendingAttaches_)
+    {
+      if (attach.isHung(now, hangTimeout))
+      {
+        hungTasks_.add(attach);
+      }
+    }
+    int poolSize = threads_ + hungTasks_.size();
+    if (poolSize > executor_.getMaximumPoolSize())
+    {
+      executor_.setMaximumPoolSize(poolSize);
+      executor_.setCorePoolSize(poolSize);
+    }
+    else if (poolSize < executor_.getMaximumPoolSize())
+    {
+      // the surplus workers terminate once they are idle
+      executor_.setCorePoolSize(poolSize);
+      executor_.setMaximumPoolSize(poolSize);
+    }
+  }
+
+  /**
+   * @return the number of running tasks which exceeded the hang timeout
+   */
+  public int getHungTaskCount()
+  {
+    return hungTasks_.size();
+  }
+
+  private static void await(Future<?> future, long deadline)
+      throws InterruptedException
+  {
+    try
+    {
+      future.get(Math.max(0, deadline - System.nanoTime()),
+          TimeUnit.NANOSECONDS);
+    }
+    catch (TimeoutException e)
+    {
+      // the result is collected later on
+    }
+    catch (ExecutionException e)
+    {
+      Logger.getLogger("jvmtop").log(Level.FINE, "error during update",
+          e.getCause());
+    }
+  }
+
+  /**
+   * Returns the jvms whose background attach has been completed since the last invocation.
+   *
+   * @return
+   */
+  public List<VMInfo> getAttachedVMs()
+  {
+    List<VMInfo> attached = new ArrayList<VMInfo>();
+    for (Iterator<Task<VMInfo>> iterator = pendingAttaches_.iterator(); iterator
+        .hasNext();)
+    {
+      Task<VMInfo> attach = iterator.next();
+      if (attach.isDone())
+      {
+        iterator.remove();
+        try
+        {
+          attached.add(attach.get());
+        }
+        catch (ExecutionException e)
+        {
+          // processNewVM() handles all exceptions
+          Logger.getLogger("jvmtop").log(Level.FINE, "error during attach",
+              e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    return attached;
+  }
+
+  /**
+   * @param vmInfo
+   * @return true if an update of the given jvm is still running, so it shows its last known values
+   */
+  public boolean isStale(VMInfo vmInfo)
+  {
+    Future<?> update = pendingUpdates_.get(vmInfo);
+    return update != null && !update.isDone();
+  }
+
+  public long getTimeoutMillis()
+  {
+    return timeoutMillis_;
+  }
+
+  /**
+   * Sets the time the caller waits for the updates.
+   *
+   * @param timeoutMillis
+   */
+  public void setTimeoutMillis(long timeoutMillis)
+  {
+    if (timeoutMillis <= 0)
+    {
+      throw new IllegalArgumentException("Update timeout must be positive");
+    }
+    timeoutMillis_ = timeoutMillis;
+  }
+
+  public void stop()
+  {
+    executor_.shutdownNow();
+  }
+
+  /**
+   * A task which records when it has been started, to detect hung tasks.
+   */
+  private static final class Task<V> extends FutureTask<V>
+  {
+    private volatile long startTime_ = -1;
+
+    Task(Callable<V> callable)
+    {
+      super(callable);
+    }
+
+    @Override
+    public void run()
+    {
+      startTime_ = System.nanoTime();
+      super.run();
+    }
+
+    boolean isHung(long now, long hangTimeout)
+    {
+      long startTime = startTime_;
+      return !isDone() && startTime >= 0 && now - startTime > hangTimeout;
+    }
+  }
+}
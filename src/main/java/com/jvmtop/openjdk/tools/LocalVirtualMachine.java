@@ -331,14 +331,31 @@ public class LocalVirtualMachine
         address);
   }
 
-  // load the management agent into the target VM
-  private void loadManagementAgent() throws IOException
+  /**
+   * Loads the given java agent (jar file) into this vm.
+   *
+   * @param agent the path of the agent jar
+   * @param options the options passed to the agentmain method
+   * @throws IOException
+   */
+  public void loadAgent(String agent, String options) throws IOException
   {
-    VirtualMachine vm = null;
-    String name = String.valueOf(vmid);
+    VirtualMachine vm = attach(vmid);
     try
     {
-      vm = VirtualMachine.attach(name);
+      loadAgent(vm, agent, options);
+    }
+    finally
+    {
+      vm.detach();
+    }
+  }
+
+  private static VirtualMachine attach(int vmid) throws IOException
+  {
+    try
+    {
+      return VirtualMachine.attach(String.valueOf(vmid));
     }
     catch (AttachNotSupportedException x)
     {
@@ -346,30 +363,14 @@ public class LocalVirtualMachine
       ioe.initCause(x);
       throw ioe;
     }
+  }
 
-    String home = vm.getSystemProperties().getProperty("java.home");
-
-    // Normally in ${java.home}/jre/lib/management-agent.jar but might
-    // be in ${java.home}/lib in build environments.
-
-    String agent = home + File.separator + "jre" + File.separator + "lib"
-        + File.separator + "management-agent.jar";
-    File f = new File(agent);
-    if (!f.exists())
-    {
-      agent = home + File.separator + "lib" + File.separator
-          + "management-agent.jar";
-      f = new File(agent);
-      if (!f.exists())
-      {
-        throw new IOException("Management agent not found");
-      }
-    }
-
-    agent = f.getCanonicalPath();
+  private static void loadAgent(VirtualMachine vm, String agent,
+      String options) throws IOException
+  {
     try
     {
-      vm.loadAgent(agent, "com.sun.management.jmxremote");
+      vm.loadAgent(agent, options);
     }
     catch (AgentLoadException x)
     {
@@ -383,20 +384,51 @@ public class LocalVirtualMachine
       ioe.initCause(x);
       throw ioe;
     }
+  }
 
-    // get the connector address
-    if (J9Mode)
+  // load the management agent into the target VM
+  private void loadManagementAgent() throws IOException
+  {
+    VirtualMachine vm = attach(vmid);
+    try
     {
-      Properties localProperties = vm.getSystemProperties();
-      this.address = ((String) localProperties
-          .get("com.sun.management.jmxremote.localConnectorAddress"));
+      String home = vm.getSystemProperties().getProperty("java.home");
+
+      // Normally in ${java.home}/jre/lib/management-agent.jar but might
+      // be in ${java.home}/lib in build environments.
+
+      String agent = home + File.separator + "jre" + File.separator + "lib"
+          + File.separator + "management-agent.jar";
+      File f = new File(agent);
+      if (!f.exists())
+      {
+        agent = home + File.separator + "lib" + File.separator
+            + "management-agent.jar";
+        f = new File(agent);
+        if (!f.exists())
+        {
+          throw new IOException("Management agent not found");
+        }
+      }
+
+      loadAgent(vm, f.getCanonicalPath(), "com.sun.management.jmxremote");
+
+      // get the connector address
+      if (J9Mode)
+      {
+        Properties localProperties = vm.getSystemProperties();
+        this.address = ((String) localProperties
+            .get("com.sun.management.jmxremote.localConnectorAddress"));
+      }
+      else
+      {
+        Properties agentProps = vm.getAgentProperties();
+        address = (String) agentProps.get(LOCAL_CONNECTOR_ADDRESS_PROP);
+      }
     }
-    else
+    finally
     {
-      Properties agentProps = vm.getAgentProperties();
-      address = (String) agentProps.get(LOCAL_CONNECTOR_ADDRESS_PROP);
+      vm.detach();
     }
-
-    vm.detach();
   }
 }
@@ -89,6 +89,8 @@ import javax.rmi.ssl.SslRMIClientSocketFactory;
 import sun.rmi.server.UnicastRef2;
 import sun.rmi.transport.LiveRef;
 
+import com.jvmtop.monitor.CountingSocketFactory;
+
 public class ProxyClient
 {
 
@@ -340,6 +342,26 @@ public class ProxyClient
         return this.connectionState;
     }
 
+    /**
+     * Returns the number of bytes received over the JMX connections
+     * of all ProxyClients of this process.
+     *
+     * @return the number of bytes, -1 if unknown (i.e. the CountingSocketFactory is not installed)
+     */
+    public long getBytesReceived() {
+        return CountingSocketFactory.getBytesReceived();
+    }
+
+    /**
+     * Returns the number of bytes sent over the JMX connections
+     * of all ProxyClients of this process.
+     *
+     * @return the number of bytes, -1 if unknown (i.e. the CountingSocketFactory is not installed)
+     */
+    public long getBytesSent() {
+        return CountingSocketFactory.getBytesSent();
+    }
+
   public void flush()
   {
         if (server != null) {
@@ -872,7 +894,7 @@ public class ProxyClient
         return !isDead();
     }
 
-    boolean hasPlatformMXBeans() {
+    public boolean hasPlatformMXBeans() {
         return this.hasPlatformMXBeans;
     }
 
@@ -880,7 +902,7 @@ public class ProxyClient
         return this.hasHotSpotDiagnosticMXBean;
     }
 
-    boolean isLockUsageSupported() {
+    public boolean isLockUsageSupported() {
         return supportsLockUsage;
     }
 
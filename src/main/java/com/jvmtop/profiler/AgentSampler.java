@@ -0,0 +1,281 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.Thread.State;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jvmtop.agent.SamplingAgent;
+import com.jvmtop.monitor.VMInfo;
+
+/**
+ * CPU sampler which receives the stacks from a SamplingAgent loaded into the monitored jvm,
+ * instead of requesting thread dumps over JMX.
+ *
+ * The agent is loaded from the jvmtop jar and connects back to a loopback socket.
+ * A random token passed to the agent ensures that only the agent is accepted.
+ *
+ * The agent aggregates the threads per thread pool (see ThreadPoolStats),
+ * so the thread names passed to processStack() are thread pool names.
+ *
+ * @author paru
+ *
+ */
+public class AgentSampler extends CPUSampler
+{
+  private static final int        TIMEOUT_MILLIS = 10000;
+
+  private static final State[]    STATES         = State.values();
+
+  private Socket                  socket_;
+
+  private DataInputStream         in_;
+
+  private OutputStream            out_;
+
+  private List<StackTraceElement> frames_        = new ArrayList<StackTraceElement>();
+
+  private List<String>            threadNames_   = new ArrayList<String>();
+
+  private List<AgentStack>        stacks_        = new ArrayList<AgentStack>();
+
+  /**
+   * the error which closed the connection to the agent, null while it is usable
+   */
+  private Exception               failure_       = null;
+
+  public AgentSampler(VMInfo vmInfo) throws Exception
+  {
+    super(vmInfo);
+    String agentJar = getAgentJar();
+    long token = new SecureRandom().nextLong();
+    ServerSocket serverSocket = new ServerSocket(0, 1,
+        InetAddress.getByName("127.0.0.1"));
+    try
+    {
+      serverSocket.setSoTimeout(TIMEOUT_MILLIS);
+      vmInfo.getLocalVirtualMachine().loadAgent(agentJar,
+          "port=" + serverSocket.getLocalPort() + ",token=" + token);
+      socket_ = serverSocket.accept();
+    }
+    finally
+    {
+      serverSocket.close();
+    }
+    socket_.setSoTimeout(TIMEOUT_MILLIS);
+    socket_.setTcpNoDelay(true);
+    in_ = new DataInputStream(new BufferedInputStream(socket_.getInputStream()));
+    out_ = socket_.getOutputStream();
+    if (in_.readInt() != SamplingAgent.MAGIC
+        || in_.readInt() != SamplingAgent.VERSION
+        || in_.readLong() != token)
+    {
+      socket_.close();
+      throw new IOException("Unexpected connection from agent");
+    }
+  }
+
+  /**
+   * @return the path of the jar containing the agent, i.e. the jvmtop jar
+   */
+  private static String getAgentJar() throws Exception
+  {
+    URL location = SamplingAgent.class.getProtectionDomain().getCodeSource()
+        .getLocation();
+    File file = new File(location.toURI());
+    if (!file.isFile())
+    {
+      throw new IOException(
+          "The sampling agent can only be loaded if jvmtop runs from its jar file");
+    }
+    return file.getCanonicalPath();
+  }
+
+  @Override
+  protected boolean collectSamples(long sampleTime) throws Exception
+  {
+    if (failure_ != null)
+    {
+      throw new IOException("Connection to the sampling agent closed after "
+          + failure_, failure_);
+    }
+    try
+    {
+      return requestSample();
+    }
+    catch (Exception e)
+    {
+      // the position within the reply is unknown (e.g. after a timeout), so the stream cannot be reused
+      failure_ = e;
+      closeSocket();
+      throw e;
+    }
+  }
+
+  private boolean requestSample() throws IOException
+  {
+    out_.write(SamplingAgent.REQUEST_SAMPLE);
+    out_.flush();
+    // a single request to the agent, no JMX calls
+    setLastRoundTrips(1);
+    while (true)
+    {
+      int record = in_.read();
+      switch (record)
+      {
+        case SamplingAgent.RECORD_FRAME:
+          readFrame();
+          break;
+        case SamplingAgent.RECORD_THREAD:
+          readThreadName();
+          break;
+        case SamplingAgent.RECORD_STACK:
+          readStack();
+          break;
+        case SamplingAgent.RECORD_RESET:
+          frames_.clear();
+          threadNames_.clear();
+          stacks_.clear();
+          break;
+        case SamplingAgent.RECORD_SAMPLE:
+          return readSample();
+        default:
+          throw new IOException("Unexpected record from agent: " + record);
+      }
+    }
+  }
+
+  private void readFrame() throws IOException
+  {
+    int id = in_.readInt();
+    if (id != frames_.size())
+    {
+      throw new IOException("Unexpected frame id from agent: " + id);
+    }
+    frames_.add(new StackTraceElement(in_.readUTF(), in_.readUTF(), null,
+        in_.readInt()));
+  }
+
+  private void readThreadName() throws IOException
+  {
+    int id = in_.readInt();
+    if (id != threadNames_.size())
+    {
+      throw new IOException("Unexpected thread id from agent: " + id);
+    }
+    threadNames_.add(in_.readUTF());
+  }
+
+  private void readStack() throws IOException
+  {
+    int id = in_.readInt();
+    if (id != stacks_.size())
+    {
+      throw new IOException("Unexpected stack id from agent: " + id);
+    }
+    String threadName = threadNames_.get(in_.readInt());
+    State state = STATES[in_.read()];
+    StackTraceElement[] stackTrace = new StackTraceElement[in_.readInt()];
+    for (int i = 0; i < stackTrace.length; i++)
+    {
+      // the elements are shared by all stacks
+      stackTrace[i] = frames_.get(in_.readInt());
+    }
+    stacks_.add(new AgentStack(threadName, state, stackTrace));
+  }
+
+  private boolean readSample() throws IOException
+  {
+    recordStackRequest(in_.readLong());
+    boolean samplesAcquired = false;
+    int count = in_.readInt();
+    for (int i = 0; i < count; i++)
+    {
+      AgentStack stack = stacks_.get(in_.readInt());
+      long deltaCpuTime = in_.readLong();
+      samplesAcquired |= processStack(stack.threadName_, stack.state_,
+          stack.stackTrace_, deltaCpuTime);
+    }
+    return samplesAcquired;
+  }
+
+  @Override
+  public String checkSupported() throws Exception
+  {
+    // the agent measures the cpu times itself
+    return null;
+  }
+
+  /**
+   * Also closes the connection to the agent, which stops the agent thread in the monitored jvm.
+   */
+  @Override
+  public void close()
+  {
+    super.close();
+    closeSocket();
+  }
+
+  private void closeSocket()
+  {
+    try
+    {
+      socket_.close();
+    }
+    catch (IOException e)
+    {
+      Logger.getLogger("jvmtop").log(Level.FINE,
+          "error while closing the connection to the sampling agent", e);
+    }
+  }
+
+  /**
+   * A stack defined by the agent.
+   */
+  private static final class AgentStack
+  {
+    private final String              threadName_;
+
+    private final State               state_;
+
+    private final StackTraceElement[] stackTrace_;
+
+    AgentStack(String threadName, State state, StackTraceElement[] stackTrace)
+    {
+      threadName_ = threadName;
+      state_ = state;
+      stackTrace_ = stackTrace;
+    }
+  }
+}
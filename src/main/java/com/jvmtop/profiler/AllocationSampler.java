@@ -0,0 +1,71 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.lang.Thread.State;
+
+import com.jvmtop.monitor.VMInfo;
+
+/**
+ * Sampling-based allocation profiler.
+ *
+ * Works like the CPUSampler, but credits the number of bytes a thread allocated
+ * since the previous sample (com.sun.management.ThreadMXBean.getThreadAllocatedBytes)
+ * to its current stack.
+ * As threads might allocate and block within the same sample interval,
+ * threads which allocated memory are sampled regardless of their state.
+ *
+ * Hits (and call tree values) are bytes.
+ *
+ * @author paru
+ *
+ */
+public class AllocationSampler extends CPUSampler
+{
+  /**
+   * the type of allocation profiles, whose values are bytes instead of nanoseconds
+   */
+  static final String PROFILE_TYPE = "alloc";
+
+  public AllocationSampler(VMInfo vmInfo) throws Exception
+  {
+    super(vmInfo, ThreadMetricCollector.ALLOCATED_BYTES);
+  }
+
+  @Override
+  protected String getProfileType()
+  {
+    return PROFILE_TYPE;
+  }
+
+  @Override
+  protected boolean isSampled(State state)
+  {
+    return true;
+  }
+
+  @Override
+  protected boolean isIdle(int frame)
+  {
+    // threads which allocated memory were not idle
+    return false;
+  }
+}
@@ -20,18 +20,24 @@
  */
 package com.jvmtop.profiler;
 
+import java.io.IOException;
 import java.lang.Thread.State;
+import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Map;
+import java.util.regex.Pattern;
 
+import com.jvmtop.monitor.PerfCounters;
 import com.jvmtop.monitor.VMInfo;
+import com.jvmtop.openjdk.tools.ProxyClient;
+import com.jvmtop.util.LatencyHistogram;
+import com.jvmtop.util.TopK;
 
 /**
  * Experimental and very basic sampling-based CPU-Profiler.
@@ -39,122 +45,1039 @@ import com.jvmtop.monitor.VMInfo;
  * It uses package excludes to filter common 3rd party libraries which often
  * distort application problems.
  *
+ * The sampler is driven by a SamplingScheduler; all sampling state is
+ * confined to the sampling thread. Other threads read the results
+ * using getSnapshot().
+ *
  * @author paru
  *
  */
-public class CPUSampler
+public class CPUSampler implements Sampler
 {
   private ThreadMXBean                          threadMxBean_ = null;
 
-  private ConcurrentMap<String, MethodStats> data_         = new ConcurrentHashMap<String, MethodStats>();
+  /**
+   * cpu time (or the sampled metric) per frame id (of getFrameDictionary()), credited to the first non-filtered frame
+   */
+  private long[]                             hits_         = new long[1024];
 
   private long                               beginCPUTime_ = 0;
 
-  private AtomicLong                         totalThreadCPUTime_ = new AtomicLong(
-                                                                     0);
+  private long                               totalThreadCPUTime_ = 0;
+
+  private PackageFilter                      filter_       = PackageFilter
+                                                               .createDefault();
+
+  /**
+   * cached filter decision per frame id, see FILTER_*
+   */
+  private byte[]                             filterDecisions_ = new byte[1024];
+
+  private static final byte                  FILTER_UNKNOWN   = 0;
+
+  private static final byte                  FILTER_EXCLUDED  = 1;
+
+  private static final byte                  FILTER_INCLUDED  = 2;
+
+  /**
+   * frames which indicate that a RUNNABLE thread is idle, null if all RUNNABLE threads are sampled
+   */
+  private IdleFrameClassifier                idleClassifier_  = IdleFrameClassifier
+                                                                  .createDefault();
+
+  /**
+   * cached idle decision per frame id, see IDLE_*
+   */
+  private byte[]                             idleDecisions_   = new byte[1024];
+
+  private static final byte                  IDLE_UNKNOWN     = 0;
+
+  private static final byte                  IDLE_YES         = 1;
+
+  private static final byte                  IDLE_NO          = 2;
+
+  /**
+   * A thread executing an idle frame is sampled nevertheless if its cpu time delta
+   * exceeds this fraction of the sample interval (e.g. a selector which is polled in a busy loop).
+   */
+  private static final double                BUSY_CPU_SHARE   = 0.5;
+
+  /**
+   * the time since the previous sample, -1 if unknown
+   */
+  private long                               intervalNanos_   = -1;
+
+  private LongLongMap                        threadCPUTime = new LongLongMap();
+
+  private LongLongMap                        nextThreadCPUTime = new LongLongMap();
+
+  private long                               updateCount_       = 0;
+
+  private long                               previousSampleTime_ = -1;
+
+  private boolean                            targetedSampling_  = false;
+
+  private int                                maxStackDepth_     = Integer.MAX_VALUE;
+
+  private Pattern                            threadNamePattern_ = null;
+
+  /**
+   * hits per thread pool id (upper 32 bits) and frame id (lower 32 bits),
+   * null if hits are not recorded per thread pool
+   */
+  private LongLongMap                        threadPoolHits_    = null;
+
+  /**
+   * hits of the recent past, null if only the hits since the start are recorded
+   */
+  private RecentHits                         recentHits_        = null;
+
+  /**
+   * hits per source line, null if not recorded
+   */
+  private LineHits                           lineHits_          = null;
+
+  /**
+   * the maximum number of lines per method in a snapshot
+   */
+  private static final int                   TOP_LINES          = 5;
+
+  /**
+   * the maximum number of methods (per thread pool) in a snapshot
+   */
+  private int                                snapshotMethods_   = DEFAULT_SNAPSHOT_METHODS;
+
+  public static final int                    DEFAULT_SNAPSHOT_METHODS = 100;
+
+  private List<String>                       threadPoolNames_   = new ArrayList<String>();
+
+  private Map<String, Integer>               threadPoolByThreadName_ = new HashMap<String, Integer>();
+
+  /**
+   * synthetic frame which replaces the outermost frames of depth-limited stacks
+   */
+  private static final String                TRUNCATED_FRAME    = "[truncated]";
 
+  private long                               sampledNanos_      = 0;
 
-  //TODO: these exception list should be expanded to the most common 3rd-party library packages
-  private List<String>                       filter        = Arrays
-                                                               .asList(new String[] {
-      "org.eclipse.", "org.apache.", "java.", "sun.", "com.sun.", "javax.",
-      "oracle.", "com.trilead.", "org.junit.", "org.mockito.",
-      "org.hibernate.", "com.ibm.", "com.caucho."
+  private volatile ProfileSnapshot           snapshot_          = null;
 
-                                                                     });
+  private volatile boolean                   snapshotRequested_ = true;
 
-  private ConcurrentMap<Long, Long>          threadCPUTime = new ConcurrentHashMap<Long, Long>();
+  private FoldedStackWriter                  foldedStackWriter_ = null;
 
-  private AtomicLong                         updateCount_       = new AtomicLong(
-                                                                     0);
+  private String                             exportError_       = null;
 
   private VMInfo                             vmInfo_;
 
+  /**
+   * duration of each sample, in microseconds
+   */
+  private LatencyHistogram                   tickLatency_       = new LatencyHistogram();
+
+  /**
+   * duration of each stack request (e.g. dumpAllThreads), in microseconds
+   */
+  private LatencyHistogram                   stackRequestLatency_ = new LatencyHistogram();
+
+  /**
+   * performance counters of the monitored jvm, null if not available
+   */
+  private PerfCounters                       perfCounters_      = null;
+
+  /**
+   * the System.nanoTime() of the first sample, -1 before
+   */
+  private long                               overheadStartTime_ = -1;
+
+  private long                               startBytesSent_;
+
+  private long                               startBytesReceived_;
+
+  private long                               startOwnCpuTime_;
+
+  private long                               startSafepointNanos_;
+
+  /**
+   * safepoint time during stack requests, -1 if unknown
+   */
+  private long                               samplingSafepointNanos_ = -1;
+
+  private ThreadMetricCollector              metricCollector_;
+
+  private int                                lastRoundTrips_    = 0;
+
+  private FrameDictionary                    frames_            = new FrameDictionary();
+
+  private CallTree                           callTree_          = new CallTree();
+
+  private int[]                              stackBuffer_       = new int[64];
+
   /**
    * @param threadMxBean
    * @throws Exception
    */
   public CPUSampler(VMInfo vmInfo) throws Exception
+  {
+    this(vmInfo, ThreadMetricCollector.CPU_TIME);
+  }
+
+  /**
+   * Creates a sampler which interns its frames into the given dictionary, so several samplers
+   * (of different jvms) can share it. The samplers must be driven by the same SamplingScheduler,
+   * as the dictionary is confined to the sampling thread.
+   *
+   * @param vmInfo
+   * @param frames
+   * @throws Exception
+   */
+  public CPUSampler(VMInfo vmInfo, FrameDictionary frames) throws Exception
+  {
+    this(vmInfo);
+    frames_ = frames;
+  }
+
+  /**
+   * Creates a sampler which credits the deltas of the given per-thread metric
+   * (instead of the cpu time) to the sampled stacks.
+   *
+   * @param vmInfo
+   * @param metricOperation the ThreadMXBean operation of the metric, see ThreadMetricCollector
+   * @throws Exception
+   */
+  protected CPUSampler(VMInfo vmInfo, String metricOperation) throws Exception
   {
     super();
     threadMxBean_ = vmInfo.getThreadMXBean();
     beginCPUTime_ = vmInfo.getProxyClient().getProcessCpuTime();
     vmInfo_ = vmInfo;
+    metricCollector_ = new ThreadMetricCollector(vmInfo.getProxyClient(),
+        metricOperation);
   }
 
-  public List<MethodStats> getTop(int limit)
+  /**
+   * Returns the most recent snapshot of the profiling results.
+   * Never blocks: the snapshot is created by the sampling thread, it might be one sample old.
+   *
+   * @return the snapshot, or null if no sample has been taken yet
+   */
+  public ProfileSnapshot getSnapshot()
   {
-    ArrayList<MethodStats> statList = new ArrayList<MethodStats>(data_.values());
-    Collections.sort(statList);
-    return statList.subList(0, Math.min(limit, statList.size()));
+    snapshotRequested_ = true;
+    return snapshot_;
   }
 
-  public long getTotal()
+  /**
+   * Creates and publishes a new snapshot, if one has been requested since the last one.
+   * Also updates the folded stack export, if configured.
+   */
+  private void publishSnapshot(long sampleTime, String error)
   {
-    return totalThreadCPUTime_.get();
+    if (!snapshotRequested_ && snapshot_ != null)
+    {
+      return;
+    }
+    snapshotRequested_ = false;
+    writeFoldedStacks();
+    List<MethodStats> top = getTop();
+    ProfileSnapshot snapshot = new ProfileSnapshot(top, totalThreadCPUTime_,
+        error);
+    snapshot.setUpdateCount(updateCount_);
+    snapshot.setSampledNanos(sampledNanos_);
+    snapshot.setLastSampleTime(sampleTime);
+    snapshot.setRoundTrips(lastRoundTrips_, metricCollector_.isBulkSupported());
+    snapshot.setExportError(exportError_);
+    snapshot.setOverhead(getOverhead(sampleTime));
+    if (recentHits_ != null)
+    {
+      snapshot.setRecentTotal(recentHits_.getTotal());
+    }
+    if (threadPoolHits_ != null)
+    {
+      snapshot.setThreadPools(getThreadPools());
+    }
+    if (lineHits_ != null)
+    {
+      snapshot.setLines(getTopLines(top));
+    }
+    // published only once completed
+    snapshot_ = snapshot;
   }
 
-  public void update() throws Exception
+  private OverheadStats getOverhead(long sampleTime)
+  {
+    ProxyClient proxyClient = vmInfo_.getProxyClient();
+    long safepointNanos = getSafepointNanos();
+    return new OverheadStats(sampleTime - overheadStartTime_,
+        tickLatency_.getPercentile(50), tickLatency_.getPercentile(99),
+        tickLatency_.getMax(), stackRequestLatency_.getPercentile(99), delta(
+            startBytesSent_, proxyClient.getBytesSent()), delta(
+            startBytesReceived_, proxyClient.getBytesReceived()), delta(
+            startOwnCpuTime_, getOwnCpuTime()),
+        samplingSafepointNanos_, delta(
+            startSafepointNanos_, safepointNanos));
+  }
+
+  /**
+   * @return the difference of two counter values, -1 if one of them is unknown
+   */
+  private static long delta(long start, long end)
+  {
+    return start >= 0 && end >= 0 ? end - start : -1;
+  }
+
+  /**
+   * @return the cpu time consumed by the jvmtop process, -1 if unknown
+   */
+  private static long getOwnCpuTime()
+  {
+    java.lang.management.OperatingSystemMXBean osBean = ManagementFactory
+        .getOperatingSystemMXBean();
+    if (osBean instanceof com.sun.management.OperatingSystemMXBean)
+    {
+      return ((com.sun.management.OperatingSystemMXBean) osBean)
+          .getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  /**
+   * @return the safepoint time of the monitored jvm, -1 if unknown
+   */
+  private long getSafepointNanos()
+  {
+    return perfCounters_ != null ? perfCounters_
+        .getNanos(PerfCounters.SAFEPOINT_TIME) : -1;
+  }
+
+  /**
+   * Records the duration and the safepoint time of a stack request.
+   *
+   * @param startTime the System.nanoTime() before the request
+   * @param startSafepointNanos the safepoint time before the request
+   */
+  private void recordStackRequest(long startTime, long startSafepointNanos)
+  {
+    stackRequestLatency_.record((System.nanoTime() - startTime) / 1000);
+    long safepointNanos = delta(startSafepointNanos, getSafepointNanos());
+    if (safepointNanos >= 0)
+    {
+      samplingSafepointNanos_ = Math.max(samplingSafepointNanos_, 0)
+          + safepointNanos;
+    }
+  }
+
+  /**
+   * Records the duration of a stack request which has been measured in the monitored jvm.
+   * The safepoint time of such requests cannot be attributed.
+   *
+   * @param micros
+   */
+  protected void recordStackRequest(long micros)
+  {
+    stackRequestLatency_.record(micros);
+  }
+
+  /**
+   * Returns the lines with the most hits of the given methods.
+   */
+  private Map<MethodStats, List<LineStats>> getTopLines(List<MethodStats> methods)
+  {
+    int[] methodFrames = new int[methods.size()];
+    for (int i = 0; i < methods.size(); i++)
+    {
+      // all methods are known, so no new frames are interned
+      methodFrames[i] = frames_.intern(methods.get(i).getClassName(), methods
+          .get(i).getMethodName());
+    }
+    Map<Integer, List<LineStats>> linesByFrame = lineHits_.getTopLines(
+        methodFrames, TOP_LINES);
+    Map<MethodStats, List<LineStats>> lines = new HashMap<MethodStats, List<LineStats>>();
+    for (int i = 0; i < methods.size(); i++)
+    {
+      lines.put(methods.get(i), linesByFrame.get(methodFrames[i]));
+    }
+    return lines;
+  }
+
+  /**
+   * Aggregates the hits per thread pool.
+   */
+  private List<ThreadPoolStats> getThreadPools()
+  {
+    List<TopK<MethodStats>> methods = new ArrayList<TopK<MethodStats>>();
+    long[] poolHits = new long[threadPoolNames_.size()];
+    for (int i = 0; i < threadPoolNames_.size(); i++)
+    {
+      methods.add(new TopK<MethodStats>(snapshotMethods_,
+          MethodStats.HITS_COMPARATOR));
+    }
+    for (int slot = 0; slot < threadPoolHits_.capacity(); slot++)
+    {
+      if (threadPoolHits_.isUsed(slot))
+      {
+        long key = threadPoolHits_.keyAt(slot);
+        int pool = (int) (key >>> 32);
+        long hits = threadPoolHits_.valueAt(slot);
+        poolHits[pool] += hits;
+        TopK<MethodStats> top = methods.get(pool);
+        if (!top.isFull() || hits > top.getLast().getHits())
+        {
+          top.offer(createMethodStats((int) key, hits, -1));
+        }
+      }
+    }
+    List<ThreadPoolStats> pools = new ArrayList<ThreadPoolStats>();
+    for (int pool = 0; pool < poolHits.length; pool++)
+    {
+      if (poolHits[pool] > 0)
+      {
+        pools.add(new ThreadPoolStats(threadPoolNames_.get(pool),
+            poolHits[pool], methods.get(pool).toList()));
+      }
+    }
+    Collections.sort(pools);
+    return pools;
+  }
+
+  /**
+   * Selects the methods with the most (recent) hits, without sorting all methods.
+   */
+  private List<MethodStats> getTop()
+  {
+    // what the jvm is doing now matters most
+    boolean recent = recentHits_ != null;
+    TopK<MethodStats> top = new TopK<MethodStats>(snapshotMethods_,
+        recent ? MethodStats.RECENT_HITS_COMPARATOR
+            : MethodStats.HITS_COMPARATOR);
+    for (int frame = 0; frame < Math.min(hits_.length, frames_.size()); frame++)
+    {
+      if (hits_[frame] > 0)
+      {
+        long recentHits = recent ? recentHits_.get(frame) : -1;
+        if (top.isFull()
+            && (recent ? recentHits <= top.getLast().getRecentHits()
+                : hits_[frame] <= top.getLast().getHits()))
+        {
+          // avoid creating statistics which would not be selected anyway
+          continue;
+        }
+        top.offer(createMethodStats(frame, hits_[frame], recentHits));
+      }
+    }
+    return top.toList();
+  }
+
+  /**
+   * Creates the statistics of the given frame for a snapshot.
+   *
+   * @param frame
+   * @param hits
+   * @param recentHits the hits of the recent past, -1 if unknown
+   * @return
+   */
+  protected MethodStats createMethodStats(int frame, long hits,
+      long recentHits)
+  {
+    return new MethodStats(frames_.getClassName(frame),
+        frames_.getMethodName(frame), hits, recentHits, null);
+  }
+
+  private void writeFoldedStacks()
+  {
+    if (foldedStackWriter_ == null)
+    {
+      return;
+    }
+    try
+    {
+      foldedStackWriter_.write();
+      exportError_ = null;
+    }
+    catch (IOException e)
+    {
+      exportError_ = "Could not write " + foldedStackWriter_.getFile() + ": "
+          + e.getMessage();
+    }
+  }
+
+  /**
+   * Enables the export of all sampled stacks using the given writer.
+   * The export is updated whenever a new snapshot is created.
+   * Must be invoked before the sampling has been started.
+   *
+   * @param foldedStackWriter
+   */
+  public void setFoldedStackWriter(FoldedStackWriter foldedStackWriter)
+  {
+    foldedStackWriter_ = foldedStackWriter;
+  }
+
+  /**
+   * Enables the targeted sampling mode: instead of dumping all threads,
+   * only the stacks of threads which consumed cpu time since the last sample
+   * are fetched, limited to the given depth (innermost frames).
+   * Must be invoked before the sampling has been started.
+   *
+   * @param maxStackDepth the maximum number of frames per stack, Integer.MAX_VALUE for complete stacks
+   */
+  public void setTargetedSampling(int maxStackDepth)
+  {
+    if (maxStackDepth <= 0)
+    {
+      throw new IllegalArgumentException("Stack depth must be positive");
+    }
+    targetedSampling_ = true;
+    maxStackDepth_ = maxStackDepth;
+  }
+
+  /**
+   * Restricts the sampling to threads whose name matches the given pattern.
+   * Must be invoked before the sampling has been started.
+   *
+   * @param threadNamePattern the pattern, null samples all threads
+   */
+  public void setThreadNamePattern(Pattern threadNamePattern)
+  {
+    threadNamePattern_ = threadNamePattern;
+  }
+
+  /**
+   * Enables recording the hits of the recent past (in addition to the hits since the start),
+   * the snapshot methods are ordered by their recent hits then.
+   * Must be invoked before the sampling has been started.
+   *
+   * @param recentHits
+   */
+  public void setRecentHits(RecentHits recentHits)
+  {
+    recentHits_ = recentHits;
+  }
+
+  /**
+   * Enables measuring the safepoint time of the monitored jvm caused by sampling.
+   * Must be invoked before the sampling has been started.
+   *
+   * @param perfCounters the performance counters of the monitored jvm
+   */
+  public void setPerfCounters(PerfCounters perfCounters)
+  {
+    perfCounters_ = perfCounters;
+  }
+
+  /**
+   * Releases the performance counters of the monitored jvm.
+   * Must be invoked after the sampling has been stopped.
+   */
+  public void close()
+  {
+    if (perfCounters_ != null)
+    {
+      perfCounters_.close();
+      perfCounters_ = null;
+    }
+  }
+
+  /**
+   * Enables recording the hits per source line of the credited frames.
+   * Must be invoked before the sampling has been started.
+   *
+   * @param lineHits
+   */
+  public void setLineHits(LineHits lineHits)
+  {
+    lineHits_ = lineHits;
+  }
+
+  /**
+   * Sets the maximum number of methods (per thread pool) kept in a snapshot.
+   *
+   * @param snapshotMethods
+   */
+  public void setSnapshotMethods(int snapshotMethods)
+  {
+    snapshotMethods_ = snapshotMethods;
+  }
+
+  /**
+   * Enables recording the hits per thread pool, in addition to the global hits.
+   * Must be invoked before the sampling has been started.
+   */
+  public void setThreadPoolsRecorded(boolean threadPoolsRecorded)
+  {
+    threadPoolHits_ = threadPoolsRecorded ? new LongLongMap() : null;
+  }
+
+  public boolean isTargetedSampling()
+  {
+    return targetedSampling_;
+  }
+
+  @Override
+  public void update(long sampleTime) throws Exception
+  {
+    if (overheadStartTime_ < 0)
+    {
+      overheadStartTime_ = sampleTime;
+      startBytesSent_ = vmInfo_.getProxyClient().getBytesSent();
+      startBytesReceived_ = vmInfo_.getProxyClient().getBytesReceived();
+      startOwnCpuTime_ = getOwnCpuTime();
+      startSafepointNanos_ = getSafepointNanos();
+    }
+    long startTime = System.nanoTime();
+    try
+    {
+      sample(sampleTime);
+    }
+    catch (Exception e)
+    {
+      publishSnapshot(sampleTime, e.toString());
+      throw e;
+    }
+    finally
+    {
+      tickLatency_.record((System.nanoTime() - startTime) / 1000);
+    }
+    publishSnapshot(sampleTime, null);
+  }
+
+  private void sample(long sampleTime) throws Exception
+  {
+    if (recentHits_ != null)
+    {
+      recentHits_.advance(sampleTime);
+    }
+    intervalNanos_ = previousSampleTime_ >= 0 ? sampleTime
+        - previousSampleTime_ : -1;
+    if (collectSamples(sampleTime))
+    {
+      updateCount_++;
+      if (previousSampleTime_ >= 0)
+      {
+        sampledNanos_ += sampleTime - previousSampleTime_;
+      }
+    }
+    previousSampleTime_ = sampleTime;
+  }
+
+  /**
+   * Checks if the monitored jvm provides the metric this sampler credits.
+   *
+   * @return null if sampling is possible, otherwise a message describing why it is not
+   * @throws Exception
+   */
+  public String checkSupported() throws Exception
+  {
+    return metricCollector_.checkSupported();
+  }
+
+  /**
+   * Sets the number of remote calls of the most recent sample, for subclasses which collect samples themselves.
+   *
+   * @param roundTrips
+   */
+  protected void setLastRoundTrips(int roundTrips)
+  {
+    lastRoundTrips_ = roundTrips;
+  }
+
+  /**
+   * Fetches the stacks and metric values of the threads of the monitored jvm
+   * and credits them, using processStack().
+   *
+   * @param sampleTime the System.nanoTime() at which the sample was started
+   * @return true if any thread has been credited
+   * @throws Exception
+   */
+  protected boolean collectSamples(long sampleTime) throws Exception
   {
     boolean samplesAcquired = false;
-    for (ThreadInfo ti : threadMxBean_.dumpAllThreads(false, false))
+    ThreadInfo[] threadInfos;
+    long[] deltaCpuTimes;
+    if (targetedSampling_)
     {
-      long cpuTime = threadMxBean_.getThreadCpuTime(ti.getThreadId());
-      Long tCPUTime = threadCPUTime.get(ti.getThreadId());
-      if (tCPUTime == null)
+      // fetch only the stacks of threads whose metric changed since the last sample
+      long[] threadIds = threadMxBean_.getAllThreadIds();
+      long[] allDeltas = updateCpuTimes(threadIds,
+          getThreadValues(threadIds, sampleTime));
+      lastRoundTrips_ = 1 + metricCollector_.getLastRoundTrips();
+      int count = 0;
+      for (int i = 0; i < threadIds.length; i++)
+      {
+        if (allDeltas[i] > 0)
+        {
+          threadIds[count] = threadIds[i];
+          allDeltas[count] = allDeltas[i];
+          count++;
+        }
+      }
+      if (count > 0)
       {
-        tCPUTime = 0L;
+        long requestTime = System.nanoTime();
+        long requestSafepointNanos = getSafepointNanos();
+        threadInfos = threadMxBean_.getThreadInfo(
+            Arrays.copyOf(threadIds, count), maxStackDepth_);
+        recordStackRequest(requestTime, requestSafepointNanos);
+        lastRoundTrips_++;
       }
       else
       {
-      Long deltaCpuTime = (cpuTime - tCPUTime);
-
-      if (ti.getStackTrace().length > 0
-          && ti.getThreadState() == State.RUNNABLE
-            ) {
-          for (StackTraceElement stElement : ti.getStackTrace()) {
-            if (isReallySleeping(stElement)) {
-              break;
-            }
-            if (isFiltered(stElement)) {
-            continue;
-          }
-          String key = stElement.getClassName() + "."
-              + stElement.getMethodName();
-          data_.putIfAbsent(key, new MethodStats(stElement.getClassName(),
-              stElement.getMethodName()));
-          data_.get(key).getHits().addAndGet(deltaCpuTime);
-          totalThreadCPUTime_.addAndGet(deltaCpuTime);
-            samplesAcquired = true;
-          break;
-        }
+        threadInfos = new ThreadInfo[0];
       }
+      deltaCpuTimes = allDeltas;
+    }
+    else
+    {
+      long requestTime = System.nanoTime();
+      long requestSafepointNanos = getSafepointNanos();
+      threadInfos = threadMxBean_.dumpAllThreads(false, false);
+      recordStackRequest(requestTime, requestSafepointNanos);
+      long[] threadIds = new long[threadInfos.length];
+      for (int i = 0; i < threadInfos.length; i++)
+      {
+        threadIds[i] = threadInfos[i].getThreadId();
       }
-      threadCPUTime.put(ti.getThreadId(), cpuTime);
+      deltaCpuTimes = updateCpuTimes(threadIds,
+          getThreadValues(threadIds, sampleTime));
+      lastRoundTrips_ = 1 + metricCollector_.getLastRoundTrips();
     }
-    if (samplesAcquired)
-{
-  updateCount_.incrementAndGet();
-}
+
+    for (int i = 0; i < threadInfos.length; i++)
+    {
+      // threadInfos might contain null values for threads terminated in the meantime
+      if (threadInfos[i] != null && deltaCpuTimes[i] >= 0)
+      {
+        samplesAcquired |= processStack(threadInfos[i].getThreadName(),
+            threadInfos[i].getThreadState(), threadInfos[i].getStackTrace(),
+            deltaCpuTimes[i]);
+      }
+    }
+    return samplesAcquired;
   }
 
-  public Long getUpdateCount()
+  /**
+   * Returns the current values of the sampled metric of the given threads.
+   * The deltas to the previous values are credited to the stacks.
+   *
+   * @param threadIds
+   * @param sampleTime the System.nanoTime() at which the sample was started
+   * @return the values, aligned to threadIds, -1 for terminated threads
+   * @throws Exception
+   */
+  protected long[] getThreadValues(long[] threadIds, long sampleTime)
+      throws Exception
   {
-    return updateCount_.get();
+    return metricCollector_.getValues(threadIds);
   }
 
-  private boolean isReallySleeping(StackTraceElement se) {
-    return se.getClassName().equals("sun.nio.ch.EPollArrayWrapper") &&
-          se.getMethodName().equals("epollWait");
+  /**
+   * Stores the given cpu times as the most recent ones, threads not contained
+   * are dropped.
+   *
+   * @return the cpu time deltas since the last sample, aligned to threadIds,
+   *         -1 if unknown (new or terminated thread)
+   */
+  private long[] updateCpuTimes(long[] threadIds, long[] cpuTimes)
+  {
+    long[] deltas = new long[threadIds.length];
+    for (int i = 0; i < threadIds.length; i++)
+    {
+      deltas[i] = -1;
+      if (cpuTimes[i] < 0)
+      {
+        // thread terminated in the meantime
+        continue;
+      }
+      long previousCpuTime = threadCPUTime.get(threadIds[i], -1);
+      if (previousCpuTime >= 0)
+      {
+        deltas[i] = cpuTimes[i] - previousCpuTime;
+      }
+      nextThreadCPUTime.put(threadIds[i], cpuTimes[i]);
+    }
+    // threads which are not alive anymore are dropped by swapping the maps
+    LongLongMap previousThreadCPUTime = threadCPUTime;
+    threadCPUTime = nextThreadCPUTime;
+    nextThreadCPUTime = previousThreadCPUTime;
+    nextThreadCPUTime.clear();
+    return deltas;
   }
 
-  public boolean isFiltered(StackTraceElement se) {
-    for (String filteredPackage : filter) {
-      if (se.getClassName().startsWith(filteredPackage)) {
-        return true;
+  /**
+   * Credits the cpu time delta of a single thread to its stack.
+   *
+   * @param threadName
+   * @param state
+   * @param stackTrace the stack of the thread, the innermost frame first
+   * @param deltaCpuTime
+   * @return true if the thread has been credited
+   */
+  protected boolean processStack(String threadName, State state,
+      StackTraceElement[] stackTrace, long deltaCpuTime)
+  {
+    // threads without any delta (e.g. parked threads in allocation profiles) would only add empty entries
+    if (stackTrace.length == 0 || deltaCpuTime <= 0 || !isSampled(state))
+    {
+      return false;
+    }
+    if (threadNamePattern_ != null
+        && !threadNamePattern_.matcher(threadName).matches())
+    {
+      return false;
+    }
+    boolean busy = isBusy(deltaCpuTime);
+    for (StackTraceElement stElement : stackTrace)
+    {
+      int frame = frames_.intern(stElement);
+      if (!busy && isIdle(frame))
+      {
+        return false;
       }
+      if (isFiltered(frame))
+      {
+        continue;
+      }
+      credit(threadName, state, stackTrace, frame, deltaCpuTime);
+      if (lineHits_ != null)
+      {
+        lineHits_.add(frame, stElement.getLineNumber(), deltaCpuTime);
+      }
+      return true;
+    }
+    if (stackTrace.length >= maxStackDepth_)
+    {
+      // the first non-filtered frame has been cut off
+      credit(threadName, state, stackTrace,
+          frames_.intern("", TRUNCATED_FRAME), deltaCpuTime);
+      return true;
     }
     return false;
   }
+
+  /**
+   * Credits the delta to the given frame (the first non-filtered frame) and the
+   * complete stack of the thread.
+   * Subclasses may override this to keep additional statistics.
+   *
+   * @param threadName
+   * @param state the state of the thread
+   * @param stackTrace the stack trace of the thread
+   * @param frame
+   * @param deltaCpuTime
+   */
+  protected void credit(String threadName, State state,
+      StackTraceElement[] stackTrace, int frame, long deltaCpuTime)
+  {
+    addHits(frame, deltaCpuTime);
+    totalThreadCPUTime_ += deltaCpuTime;
+    addToCallTree(stackTrace, deltaCpuTime);
+    if (threadPoolHits_ != null)
+    {
+      long pool = getThreadPool(threadName);
+      threadPoolHits_.add((pool << 32) | frame, deltaCpuTime);
+    }
+  }
+
+  /**
+   * Returns the id of the thread pool of the given thread, see ThreadPoolStats.getThreadPoolName().
+   */
+  private int getThreadPool(String threadName)
+  {
+    Integer pool = threadPoolByThreadName_.get(threadName);
+    if (pool == null)
+    {
+      String poolName = ThreadPoolStats.getThreadPoolName(threadName);
+      pool = threadPoolNames_.indexOf(poolName);
+      if (pool < 0)
+      {
+        pool = threadPoolNames_.size();
+        threadPoolNames_.add(poolName);
+      }
+      threadPoolByThreadName_.put(threadName, pool);
+    }
+    return pool;
+  }
+
+  private void addHits(int frame, long deltaCpuTime)
+  {
+    if (frame >= hits_.length)
+    {
+      hits_ = Arrays.copyOf(hits_, Math.max(frame + 1, hits_.length * 2));
+    }
+    hits_[frame] += deltaCpuTime;
+    if (recentHits_ != null)
+    {
+      recentHits_.add(frame, deltaCpuTime);
+    }
+  }
+
+  /**
+   * Adds the complete stack to the call tree, the outermost frame first.
+   *
+   * @param stackTrace
+   * @param deltaCpuTime
+   */
+  private void addToCallTree(StackTraceElement[] stackTrace, long deltaCpuTime)
+  {
+    int depth = 0;
+    if (stackBuffer_.length < stackTrace.length + 1)
+    {
+      stackBuffer_ = new int[stackTrace.length + 1];
+    }
+    if (stackTrace.length >= maxStackDepth_)
+    {
+      // the outermost frames are missing
+      stackBuffer_[depth++] = frames_.intern("", TRUNCATED_FRAME);
+    }
+    for (int i = stackTrace.length - 1; i >= 0; i--)
+    {
+      stackBuffer_[depth++] = frames_.intern(stackTrace[i]);
+    }
+    callTree_.addSample(stackBuffer_, depth, deltaCpuTime);
+  }
+
+  /**
+   * Returns the call tree containing all sampled stacks.
+   * Node frames refer to ids of getFrameDictionary().
+   * Must only be accessed by the sampling thread (or before the sampling has been started).
+   *
+   * @return
+   */
+  public CallTree getCallTree()
+  {
+    return callTree_;
+  }
+
+  public FrameDictionary getFrameDictionary()
+  {
+    return frames_;
+  }
+
+  /**
+   * Copies the current profiling results, e.g. to persist them.
+   * Must only be invoked by the sampling thread (or after the sampling has been stopped).
+   *
+   * @param name
+   * @return
+   */
+  public ProfileData captureProfile(String name)
+  {
+    return ProfileData.capture(name, getProfileType(), hits_,
+        totalThreadCPUTime_, sampledNanos_, updateCount_, callTree_, frames_);
+  }
+
+  /**
+   * Returns the kind of the recorded hits, only profiles of the same type can be compared.
+   *
+   * @return
+   */
+  protected String getProfileType()
+  {
+    return "cpu";
+  }
+
+  /**
+   * Determines if the metric delta of the given thread should be credited to its stack.
+   * Only threads which are currently running are sampled by default.
+   * Threads whose delta is zero are never sampled.
+   *
+   * @param state the state of the thread
+   * @return
+   */
+  protected boolean isSampled(State state)
+  {
+    return state == State.RUNNABLE;
+  }
+
+  /**
+   * Determines if a stack frame indicates that the thread is idle although it is RUNNABLE,
+   * idle threads are not sampled.
+   * The decision is cached per frame id.
+   *
+   * @param frame the id of the frame
+   * @return
+   */
+  protected boolean isIdle(int frame)
+  {
+    if (idleClassifier_ == null)
+    {
+      return false;
+    }
+    if (frame >= idleDecisions_.length)
+    {
+      idleDecisions_ = Arrays.copyOf(idleDecisions_,
+          Math.max(frame + 1, idleDecisions_.length * 2));
+    }
+    byte decision = idleDecisions_[frame];
+    if (decision == IDLE_UNKNOWN)
+    {
+      decision = idleClassifier_.isIdle(frames_.getClassName(frame),
+          frames_.getMethodName(frame)) ? IDLE_YES : IDLE_NO;
+      idleDecisions_[frame] = decision;
+    }
+    return decision == IDLE_YES;
+  }
+
+  /**
+   * Cross-checks idle frames against the cpu time: a thread which consumed
+   * more than BUSY_CPU_SHARE of the sample interval is not idle, whatever its stack looks like.
+   *
+   * @param deltaCpuTime
+   * @return
+   */
+  private boolean isBusy(long deltaCpuTime)
+  {
+    return intervalNanos_ > 0 && deltaCpuTime > intervalNanos_ * BUSY_CPU_SHARE;
+  }
+
+  public boolean isFiltered(StackTraceElement se) {
+    return filter_.isExcluded(se.getClassName());
+  }
+
+  /**
+   * Determines if the given frame is filtered, caching the decision per frame id.
+   */
+  private boolean isFiltered(int frame)
+  {
+    if (frame >= filterDecisions_.length)
+    {
+      filterDecisions_ = Arrays.copyOf(filterDecisions_,
+          Math.max(frame + 1, filterDecisions_.length * 2));
+    }
+    byte decision = filterDecisions_[frame];
+    if (decision == FILTER_UNKNOWN)
+    {
+      decision = filter_.isExcluded(frames_.getClassName(frame)) ? FILTER_EXCLUDED
+          : FILTER_INCLUDED;
+      filterDecisions_[frame] = decision;
+    }
+    return decision == FILTER_EXCLUDED;
+  }
+
+  /**
+   * Sets the filter which determines the frames the samples are credited to
+   * (the first frame which is not excluded).
+   * Must be invoked before the sampling has been started.
+   *
+   * @param filter
+   */
+  public void setFilter(PackageFilter filter)
+  {
+    filter_ = filter;
+    Arrays.fill(filterDecisions_, FILTER_UNKNOWN);
+  }
+
+  /**
+   * Sets the classifier which determines the frames of RUNNABLE threads which are idle,
+   * null samples all RUNNABLE threads.
+   * Must be invoked before the sampling has been started.
+   *
+   * @param idleClassifier
+   */
+  public void setIdleFrameClassifier(IdleFrameClassifier idleClassifier)
+  {
+    idleClassifier_ = idleClassifier;
+    Arrays.fill(idleDecisions_, IDLE_UNKNOWN);
+  }
 }
 
@@ -0,0 +1,458 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates complete stack samples in a prefix tree (call tree) of interned frames.
+ *
+ * Every node stores its self value (time spent in the frame itself)
+ * and its total value (including all callees).
+ *
+ * To keep the memory footprint bounded, nodes are stored in primitive arrays
+ * (children are linked as first-child / next-sibling lists),
+ * released nodes are pooled in a free list and the number of nodes is capped.
+ * If the cap is reached, the coldest subtrees are pruned; their values are
+ * credited to the self value of their parent node, so totals are never lost.
+ *
+ * Nodes whose self value changed are tracked as "dirty" so that consumers
+ * (e.g. FoldedStackWriter) can process changes incrementally.
+ * Pruning increments the structure version, as node ids may be reused afterwards.
+ *
+ * This class is not thread-safe.
+ *
+ * @author paru
+ *
+ */
+public class CallTree
+{
+  /**
+   * The id of the (synthetic) root node.
+   */
+  public static final int  ROOT               = 0;
+
+  /**
+   * Denotes a non-existing node.
+   */
+  public static final int  NONE               = -1;
+
+  public static final int  DEFAULT_MAX_NODES  = 100000;
+
+  private static final int INITIAL_CAPACITY   = 1024;
+
+  /**
+   * The fraction of the node cap which a pruning run tries to release.
+   */
+  private static final int PRUNE_DIVISOR      = 4;
+
+  private int              maxNodes_;
+
+  private int[]            frame_;
+
+  private int[]            parent_;
+
+  private int[]            firstChild_;
+
+  private int[]            nextSibling_;
+
+  private long[]           self_;
+
+  private long[]           total_;
+
+  /**
+   * high-water mark of used node slots
+   */
+  private int              size_              = 0;
+
+  private int              liveNodes_         = 0;
+
+  private int              freeList_          = NONE;
+
+  private int              pruneCount_        = 0;
+
+  private int              structureVersion_  = 0;
+
+  private boolean[]        dirty_;
+
+  private int[]            dirtyNodes_;
+
+  private int              dirtyCount_        = 0;
+
+  public CallTree()
+  {
+    this(DEFAULT_MAX_NODES);
+  }
+
+  public CallTree(int maxNodes)
+  {
+    super();
+    setMaxNodes(maxNodes);
+    int capacity = Math.min(INITIAL_CAPACITY, maxNodes_);
+    frame_ = new int[capacity];
+    parent_ = new int[capacity];
+    firstChild_ = new int[capacity];
+    nextSibling_ = new int[capacity];
+    self_ = new long[capacity];
+    total_ = new long[capacity];
+    dirty_ = new boolean[capacity];
+    dirtyNodes_ = new int[capacity];
+    allocateNode(NONE, NONE);
+  }
+
+  /**
+   * Adds a stack sample.
+   *
+   * @param frames the frame ids of the stack, the outermost frame first
+   * @param depth the number of valid entries in frames
+   * @param value the value (e.g. cpu time) to credit
+   */
+  public void addSample(int[] frames, int depth, long value)
+  {
+    if (liveNodes_ + depth > maxNodes_)
+    {
+      prune();
+    }
+    total_[ROOT] += value;
+    int node = ROOT;
+    for (int i = 0; i < depth; i++)
+    {
+      int child = getOrCreateChild(node, frames[i]);
+      if (child == NONE)
+      {
+        // cap reached, credit the remaining stack to the deepest known frame
+        break;
+      }
+      total_[child] += value;
+      node = child;
+    }
+    self_[node] += value;
+    markDirty(node);
+  }
+
+  private void markDirty(int node)
+  {
+    if (!dirty_[node])
+    {
+      dirty_[node] = true;
+      dirtyNodes_[dirtyCount_++] = node;
+    }
+  }
+
+  /**
+   * Returns the child of node representing frame, creating it if required.
+   * A found child is moved to the front of the sibling list,
+   * as hot paths are likely to be sampled again.
+   *
+   * Returns NONE if the node cap has been reached.
+   */
+  private int getOrCreateChild(int node, int frame)
+  {
+    int previous = NONE;
+    for (int child = firstChild_[node]; child != NONE; child = nextSibling_[child])
+    {
+      if (frame_[child] == frame)
+      {
+        if (previous != NONE)
+        {
+          nextSibling_[previous] = nextSibling_[child];
+          nextSibling_[child] = firstChild_[node];
+          firstChild_[node] = child;
+        }
+        return child;
+      }
+      previous = child;
+    }
+    if (liveNodes_ >= maxNodes_)
+    {
+      return NONE;
+    }
+    int child = allocateNode(node, frame);
+    nextSibling_[child] = firstChild_[node];
+    firstChild_[node] = child;
+    return child;
+  }
+
+  private int allocateNode(int parent, int frame)
+  {
+    int node;
+    if (freeList_ != NONE)
+    {
+      node = freeList_;
+      freeList_ = nextSibling_[node];
+    }
+    else
+    {
+      if (size_ == frame_.length)
+      {
+        grow();
+      }
+      node = size_++;
+    }
+    frame_[node] = frame;
+    parent_[node] = parent;
+    firstChild_[node] = NONE;
+    nextSibling_[node] = NONE;
+    self_[node] = 0;
+    total_[node] = 0;
+    liveNodes_++;
+    return node;
+  }
+
+  private void grow()
+  {
+    int capacity = (int) Math.min((long) maxNodes_, frame_.length * 2L);
+    frame_ = Arrays.copyOf(frame_, capacity);
+    parent_ = Arrays.copyOf(parent_, capacity);
+    firstChild_ = Arrays.copyOf(firstChild_, capacity);
+    nextSibling_ = Arrays.copyOf(nextSibling_, capacity);
+    self_ = Arrays.copyOf(self_, capacity);
+    total_ = Arrays.copyOf(total_, capacity);
+    dirty_ = Arrays.copyOf(dirty_, capacity);
+    dirtyNodes_ = Arrays.copyOf(dirtyNodes_, capacity);
+  }
+
+  /**
+   * Removes the coldest subtrees until roughly a quarter of the node cap is available again.
+   * As the total value of a node is never smaller than the one of its children,
+   * removing all nodes below a total value threshold always removes complete subtrees.
+   * Subtrees whose total equals the threshold are only removed until the quarter is reached,
+   * as many nodes might share it (e.g. those hit by a single sample).
+   */
+  public void prune()
+  {
+    if (liveNodes_ <= 1)
+    {
+      return;
+    }
+    long[] totals = new long[liveNodes_ - 1];
+    int count = 0;
+    int[] stack = new int[liveNodes_];
+    int stackSize = 0;
+    stack[stackSize++] = ROOT;
+    while (stackSize > 0)
+    {
+      int node = stack[--stackSize];
+      for (int child = firstChild_[node]; child != NONE; child = nextSibling_[child])
+      {
+        totals[count++] = total_[child];
+        stack[stackSize++] = child;
+      }
+    }
+    Arrays.sort(totals, 0, count);
+    int toRelease = Math.max(1, maxNodes_ / PRUNE_DIVISOR);
+    int thresholdIndex = Math.min(count, toRelease) - 1;
+    long threshold = totals[thresholdIndex];
+    // the nodes below the threshold are always released, the rest of toRelease is left for the ones at it
+    int belowThreshold = thresholdIndex;
+    while (belowThreshold > 0 && totals[belowThreshold - 1] == threshold)
+    {
+      belowThreshold--;
+    }
+    int thresholdBudget = toRelease - belowThreshold;
+
+    int[] scratch = new int[liveNodes_];
+    stackSize = 0;
+    stack[stackSize++] = ROOT;
+    while (stackSize > 0)
+    {
+      int node = stack[--stackSize];
+      int previous = NONE;
+      int child = firstChild_[node];
+      while (child != NONE)
+      {
+        int next = nextSibling_[child];
+        long total = total_[child];
+        if (total < threshold || (total == threshold && thresholdBudget > 0))
+        {
+          if (previous == NONE)
+          {
+            firstChild_[node] = next;
+          }
+          else
+          {
+            nextSibling_[previous] = next;
+          }
+          self_[node] += total;
+          markDirty(node);
+          int released = releaseSubtree(child, scratch);
+          if (total == threshold)
+          {
+            thresholdBudget -= released;
+          }
+        }
+        else
+        {
+          stack[stackSize++] = child;
+          previous = child;
+        }
+        child = next;
+      }
+    }
+    pruneCount_++;
+    structureVersion_++;
+  }
+
+  /**
+   * @return the number of released nodes
+   */
+  private int releaseSubtree(int subtreeRoot, int[] stack)
+  {
+    int released = 0;
+    int stackSize = 0;
+    stack[stackSize++] = subtreeRoot;
+    while (stackSize > 0)
+    {
+      int node = stack[--stackSize];
+      for (int child = firstChild_[node]; child != NONE; child = nextSibling_[child])
+      {
+        stack[stackSize++] = child;
+      }
+      frame_[node] = NONE;
+      parent_[node] = NONE;
+      firstChild_[node] = NONE;
+      self_[node] = 0;
+      total_[node] = 0;
+      nextSibling_[node] = freeList_;
+      freeList_ = node;
+      liveNodes_--;
+      released++;
+    }
+    return released;
+  }
+
+  /**
+   * Sets the maximum number of nodes, pruning the tree if it currently exceeds it.
+   *
+   * @param maxNodes
+   */
+  public void setMaxNodes(int maxNodes)
+  {
+    if (maxNodes < 2)
+    {
+      throw new IllegalArgumentException("Call tree requires at least 2 nodes");
+    }
+    maxNodes_ = maxNodes;
+    while (frame_ != null && liveNodes_ > maxNodes_)
+    {
+      prune();
+    }
+  }
+
+  public int getMaxNodes()
+  {
+    return maxNodes_;
+  }
+
+  /**
+   * @return the number of nodes currently in use, including the root node
+   */
+  public int getNodeCount()
+  {
+    return liveNodes_;
+  }
+
+  /**
+   * @return how often the tree had to be pruned so far
+   */
+  public int getPruneCount()
+  {
+    return pruneCount_;
+  }
+
+  /**
+   * Returns a version number which is incremented whenever nodes were removed.
+   * Node ids obtained before a version change might refer to different frames afterwards.
+   *
+   * @return
+   */
+  public int getStructureVersion()
+  {
+    return structureVersion_;
+  }
+
+  /**
+   * @return the number of nodes whose self value changed since the last clearDirtyNodes() call
+   */
+  public int getDirtyNodeCount()
+  {
+    return dirtyCount_;
+  }
+
+  /**
+   * Returns the i-th dirty node. Released nodes might be contained.
+   *
+   * @param i
+   * @return
+   */
+  public int getDirtyNode(int i)
+  {
+    return dirtyNodes_[i];
+  }
+
+  public void clearDirtyNodes()
+  {
+    for (int i = 0; i < dirtyCount_; i++)
+    {
+      dirty_[dirtyNodes_[i]] = false;
+    }
+    dirtyCount_ = 0;
+  }
+
+  /**
+   * @param node
+   * @return true if the node is currently in use
+   */
+  public boolean isLive(int node)
+  {
+    return node == ROOT || (node < size_ && parent_[node] != NONE);
+  }
+
+  public int getFrame(int node)
+  {
+    return frame_[node];
+  }
+
+  public int getParent(int node)
+  {
+    return parent_[node];
+  }
+
+  public int getFirstChild(int node)
+  {
+    return firstChild_[node];
+  }
+
+  public int getNextSibling(int node)
+  {
+    return nextSibling_[node];
+  }
+
+  public long getSelf(int node)
+  {
+    return self_[node];
+  }
+
+  public long getTotal(int node)
+  {
+    return total_[node];
+  }
+}
@@ -0,0 +1,352 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.lang.Thread.State;
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jvmtop.monitor.VMInfo;
+
+/**
+ * Sampling-based lock contention profiler.
+ *
+ * On each sample, all threads which are BLOCKED on a monitor or WAITING for an owned
+ * java.util.concurrent lock are credited to the class of the lock and to the frame
+ * which tries to acquire it.
+ *
+ * Thread contention monitoring is enabled on the monitored jvm (if supported) while sampling,
+ * so the credited time is the blocked (or waited) time the jvm measured since the previous sample.
+ * Otherwise, the time between two samples is credited as an estimate.
+ *
+ * Like the CPUSampler, the sampler is driven by a SamplingScheduler
+ * and other threads read the results using getSnapshot().
+ *
+ * @author paru
+ *
+ */
+public class ContentionSampler implements Sampler
+{
+  /**
+   * frames which are skipped to find the frame acquiring a java.util.concurrent lock
+   */
+  private static final String[]       LOCK_IMPLEMENTATION_PREFIXES = new String[] {
+      "java.util.concurrent.locks.", "sun.misc.Unsafe",
+      "jdk.internal.misc.Unsafe"                                 };
+
+  private static final int            BLOCKED_TIME                 = 0;
+
+  private static final int            BLOCKED_COUNT                = 1;
+
+  private static final int            WAITED_TIME                  = 2;
+
+  private static final int            WAITED_COUNT                 = 3;
+
+  private ThreadMXBean                threadMxBean_                = null;
+
+  private boolean                     initialized_                 = false;
+
+  private boolean                     contentionMonitoringEnabled_ = false;
+
+  /**
+   * true if contention monitoring was disabled on the monitored jvm and has been enabled by this sampler
+   */
+  private volatile boolean            enabledContentionMonitoring_ = false;
+
+  /**
+   * the blocked/waited times and counts of each thread at the previous sample
+   */
+  private Map<Long, long[]>           threadCounters_              = new HashMap<Long, long[]>();
+
+  private FrameDictionary             frames_                      = new FrameDictionary();
+
+  /**
+   * lock classes, interned as frames without a method name
+   */
+  private FrameDictionary             locks_                       = new FrameDictionary();
+
+  private LongLongMap                 lockMillis_                  = new LongLongMap();
+
+  private LongLongMap                 lockCounts_                  = new LongLongMap();
+
+  /**
+   * keyed by lock id (upper 32 bits) and frame id (lower 32 bits)
+   */
+  private LongLongMap                 frameMillis_                 = new LongLongMap();
+
+  private LongLongMap                 frameCounts_                 = new LongLongMap();
+
+  private long                        totalBlockedMillis_          = 0;
+
+  private long                        updateCount_                 = 0;
+
+  private long                        previousSampleTime_          = -1;
+
+  private long                        sampledNanos_                = 0;
+
+  private volatile ContentionSnapshot snapshot_                    = null;
+
+  private volatile boolean            snapshotRequested_           = true;
+
+  public ContentionSampler(VMInfo vmInfo) throws Exception
+  {
+    super();
+    threadMxBean_ = vmInfo.getThreadMXBean();
+  }
+
+  /**
+   * Returns the most recent snapshot of the profiling results.
+   * Never blocks: the snapshot is created by the sampling thread, it might be one sample old.
+   *
+   * @return the snapshot, or null if no sample has been taken yet
+   */
+  public ContentionSnapshot getSnapshot()
+  {
+    snapshotRequested_ = true;
+    return snapshot_;
+  }
+
+  @Override
+  public void update(long sampleTime) throws Exception
+  {
+    try
+    {
+      sample(sampleTime);
+    }
+    catch (Exception e)
+    {
+      publishSnapshot(e.toString());
+      throw e;
+    }
+    publishSnapshot(null);
+  }
+
+  /**
+   * Enables thread contention monitoring on the monitored jvm, if supported.
+   * The setting has to be reverted using restoreContentionMonitoring().
+   */
+  private void enableContentionMonitoring()
+  {
+    try
+    {
+      if (threadMxBean_.isThreadContentionMonitoringSupported())
+      {
+        if (!threadMxBean_.isThreadContentionMonitoringEnabled())
+        {
+          threadMxBean_.setThreadContentionMonitoringEnabled(true);
+          enabledContentionMonitoring_ = true;
+        }
+        // not read back, as attributes are cached by the snapshot connection
+        contentionMonitoringEnabled_ = true;
+      }
+    }
+    catch (SecurityException e)
+    {
+      Logger.getLogger("jvmtop").log(Level.FINE,
+          "could not enable thread contention monitoring", e);
+    }
+  }
+
+  /**
+   * Disables thread contention monitoring on the monitored jvm again, if it has been enabled by this sampler,
+   * as it slows down every contended lock of the monitored jvm.
+   * Must not be called while sampling.
+   */
+  public void restoreContentionMonitoring()
+  {
+    if (!enabledContentionMonitoring_)
+    {
+      return;
+    }
+    try
+    {
+      threadMxBean_.setThreadContentionMonitoringEnabled(false);
+      enabledContentionMonitoring_ = false;
+    }
+    catch (Exception e)
+    {
+      Logger.getLogger("jvmtop").log(Level.FINE,
+          "could not disable thread contention monitoring", e);
+    }
+  }
+
+  private void sample(long sampleTime) throws Exception
+  {
+    if (!initialized_)
+    {
+      enableContentionMonitoring();
+      initialized_ = true;
+    }
+    long intervalMillis = previousSampleTime_ >= 0 ? (sampleTime - previousSampleTime_) / 1000000
+        : 0;
+    ThreadInfo[] threadInfos = threadMxBean_.dumpAllThreads(false, false);
+    Map<Long, long[]> nextThreadCounters = new HashMap<Long, long[]>(
+        threadInfos.length * 2);
+    for (ThreadInfo ti : threadInfos)
+    {
+      if (ti == null)
+      {
+        continue;
+      }
+      long[] counters = new long[] { ti.getBlockedTime(), ti.getBlockedCount(),
+          ti.getWaitedTime(), ti.getWaitedCount() };
+      long[] previousCounters = threadCounters_.get(ti.getThreadId());
+      nextThreadCounters.put(ti.getThreadId(), counters);
+
+      if (ti.getThreadState() == State.BLOCKED)
+      {
+        credit(ti, getFrame(ti.getStackTrace(), false),
+            getDelta(counters, previousCounters, BLOCKED_TIME, intervalMillis),
+            getDelta(counters, previousCounters, BLOCKED_COUNT, 1));
+      }
+      else if ((ti.getThreadState() == State.WAITING || ti.getThreadState() == State.TIMED_WAITING)
+          && ti.getLockOwnerId() >= 0)
+      {
+        // waiting for a lock which is owned by another thread (e.g. a ReentrantLock)
+        credit(ti, getFrame(ti.getStackTrace(), true),
+            getDelta(counters, previousCounters, WAITED_TIME, intervalMillis),
+            getDelta(counters, previousCounters, WAITED_COUNT, 1));
+      }
+    }
+    threadCounters_ = nextThreadCounters;
+
+    updateCount_++;
+    if (previousSampleTime_ >= 0)
+    {
+      sampledNanos_ += sampleTime - previousSampleTime_;
+    }
+    previousSampleTime_ = sampleTime;
+  }
+
+  /**
+   * Returns the increase of a counter since the previous sample, or the estimate
+   * if the counter is unavailable (e.g. as contention monitoring is disabled or the thread is new).
+   */
+  private long getDelta(long[] counters, long[] previousCounters, int counter,
+      long estimate)
+  {
+    if (previousCounters == null || counters[counter] < 0
+        || previousCounters[counter] < 0
+        || (!contentionMonitoringEnabled_ && (counter == BLOCKED_TIME || counter == WAITED_TIME)))
+    {
+      return estimate;
+    }
+    return Math.max(0, counters[counter] - previousCounters[counter]);
+  }
+
+  /**
+   * Returns the frame acquiring the lock, -1 if the stack is empty.
+   */
+  private int getFrame(StackTraceElement[] stackTrace, boolean skipLockImplementation)
+  {
+    if (stackTrace.length == 0)
+    {
+      return -1;
+    }
+    if (skipLockImplementation)
+    {
+      for (StackTraceElement stElement : stackTrace)
+      {
+        if (!isLockImplementation(stElement))
+        {
+          return frames_.intern(stElement);
+        }
+      }
+    }
+    return frames_.intern(stackTrace[0]);
+  }
+
+  private boolean isLockImplementation(StackTraceElement se)
+  {
+    for (String prefix : LOCK_IMPLEMENTATION_PREFIXES)
+    {
+      if (se.getClassName().startsWith(prefix))
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void credit(ThreadInfo ti, int frame, long millis, long count)
+  {
+    LockInfo lockInfo = ti.getLockInfo();
+    String lockClassName = lockInfo != null ? lockInfo.getClassName() : String
+        .valueOf(ti.getLockName());
+    int lock = locks_.intern(lockClassName, "");
+    lockMillis_.add(lock, millis);
+    lockCounts_.add(lock, count);
+    totalBlockedMillis_ += millis;
+    if (frame >= 0)
+    {
+      long key = ((long) lock << 32) | frame;
+      frameMillis_.add(key, millis);
+      frameCounts_.add(key, count);
+    }
+  }
+
+  private void publishSnapshot(String error)
+  {
+    if (!snapshotRequested_ && snapshot_ != null)
+    {
+      return;
+    }
+    snapshotRequested_ = false;
+
+    List<LockStats> locks = new ArrayList<LockStats>();
+    for (int slot = 0; slot < lockMillis_.capacity(); slot++)
+    {
+      if (lockMillis_.isUsed(slot))
+      {
+        int lock = (int) lockMillis_.keyAt(slot);
+        locks.add(new LockStats(locks_.getClassName(lock), null, null,
+            lockMillis_.valueAt(slot), lockCounts_.get(lock, 0)));
+      }
+    }
+    Collections.sort(locks);
+
+    List<LockStats> frames = new ArrayList<LockStats>();
+    for (int slot = 0; slot < frameMillis_.capacity(); slot++)
+    {
+      if (frameMillis_.isUsed(slot))
+      {
+        long key = frameMillis_.keyAt(slot);
+        int lock = (int) (key >>> 32);
+        int frame = (int) key;
+        frames.add(new LockStats(locks_.getClassName(lock), frames_
+            .getClassName(frame), frames_.getMethodName(frame), frameMillis_
+            .valueAt(slot), frameCounts_.get(key, 0)));
+      }
+    }
+    Collections.sort(frames);
+
+    snapshot_ = new ContentionSnapshot(locks, frames, totalBlockedMillis_,
+        updateCount_, sampledNanos_, contentionMonitoringEnabled_, error);
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, consistent view of the results of a ContentionSampler at a given point in time.
+ *
+ * @author paru
+ *
+ */
+public class ContentionSnapshot
+{
+  private final List<LockStats> locks_;
+
+  private final List<LockStats> frames_;
+
+  private final long            totalBlockedMillis_;
+
+  private final long            updateCount_;
+
+  private final long            sampledNanos_;
+
+  private final boolean         contentionMonitoringEnabled_;
+
+  private final String          error_;
+
+  /**
+   * @param locks the contention per lock class, ordered by blocked time (descending)
+   * @param frames the contention per lock class and acquiring frame, ordered by blocked time (descending)
+   * @param totalBlockedMillis the sum of the blocked time of all locks
+   * @param updateCount the number of samples taken
+   * @param sampledNanos the measured wall-clock time covered by the samples
+   * @param contentionMonitoringEnabled true if the blocked times are measured by the monitored jvm, false if they are estimated
+   * @param error the error message of the most recent sample, or null
+   */
+  public ContentionSnapshot(List<LockStats> locks, List<LockStats> frames,
+      long totalBlockedMillis, long updateCount, long sampledNanos,
+      boolean contentionMonitoringEnabled, String error)
+  {
+    super();
+    locks_ = Collections.unmodifiableList(locks);
+    frames_ = Collections.unmodifiableList(frames);
+    totalBlockedMillis_ = totalBlockedMillis;
+    updateCount_ = updateCount;
+    sampledNanos_ = sampledNanos;
+    contentionMonitoringEnabled_ = contentionMonitoringEnabled;
+    error_ = error;
+  }
+
+  public List<LockStats> getTopLocks(int limit)
+  {
+    return locks_.subList(0, Math.min(limit, locks_.size()));
+  }
+
+  public List<LockStats> getTopFrames(int limit)
+  {
+    return frames_.subList(0, Math.min(limit, frames_.size()));
+  }
+
+  public long getTotalBlockedMillis()
+  {
+    return totalBlockedMillis_;
+  }
+
+  public long getUpdateCount()
+  {
+    return updateCount_;
+  }
+
+  /**
+   * @return the measured wall-clock time (in seconds) covered by the samples
+   */
+  public double getSampledSeconds()
+  {
+    return sampledNanos_ / 1000000000d;
+  }
+
+  /**
+   * @return true if the blocked times are measured by the monitored jvm (thread contention monitoring),
+   *         false if they are estimated from the samples
+   */
+  public boolean isContentionMonitoringEnabled()
+  {
+    return contentionMonitoringEnabled_;
+  }
+
+  /**
+   * @return the error message of the most recent sample, null if it succeeded
+   */
+  public String getError()
+  {
+    return error_;
+  }
+}
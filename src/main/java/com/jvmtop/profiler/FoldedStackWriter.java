@@ -0,0 +1,229 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Writes the samples of a CallTree in the collapsed stack format
+ * ("frame;frame;frame count" per line), as consumed by flame graph tools.
+ *
+ * Counts are microseconds for time based profiles (cpu and wall-clock time)
+ * and bytes for allocation profiles, like the ones written by ProfileDiff.
+ *
+ * The file is updated incrementally: on each write() call,
+ * only the stacks whose self value changed since the last call are appended
+ * (with their delta), flame graph tools sum up duplicate stacks.
+ * The file is rewritten completely (compacted) if the call tree has been pruned
+ * or if the appended lines outgrow the call tree.
+ *
+ * @author paru
+ *
+ */
+public class FoldedStackWriter
+{
+  private static final String PRUNED_FRAME       = "[pruned]";
+
+  /**
+   * The file will be compacted if the number of lines exceeds the number of nodes by this factor.
+   */
+  private static final int    COMPACTION_FACTOR  = 4;
+
+  private File                file_;
+
+  private CallTree            callTree_;
+
+  private FrameDictionary     frames_;
+
+  /**
+   * the divisor which converts the call tree values to the written counts
+   */
+  private long                unit_;
+
+  /**
+   * The self value (in the written unit) of each node which has already been written
+   */
+  private long[]              writtenCounts_     = new long[1024];
+
+  private int                 structureVersion_  = -1;
+
+  private long                lineCount_         = 0;
+
+  private int[]               pathBuffer_        = new int[64];
+
+  /**
+   * @param file
+   * @param sampler the sampler whose call tree is written
+   */
+  public FoldedStackWriter(File file, CPUSampler sampler)
+  {
+    super();
+    file_ = file;
+    callTree_ = sampler.getCallTree();
+    frames_ = sampler.getFrameDictionary();
+    unit_ = AllocationSampler.PROFILE_TYPE.equals(sampler.getProfileType()) ? 1
+        : 1000;
+  }
+
+  /**
+   * Writes all changes of the call tree since the last invocation.
+   *
+   * @throws IOException
+   */
+  public void write() throws IOException
+  {
+    if (structureVersion_ != callTree_.getStructureVersion()
+        || lineCount_ + callTree_.getDirtyNodeCount() > (long) COMPACTION_FACTOR
+            * callTree_.getNodeCount())
+    {
+      writeAll();
+    }
+    else
+    {
+      writeChanges();
+    }
+    callTree_.clearDirtyNodes();
+  }
+
+  private void writeChanges() throws IOException
+  {
+    Writer writer = openWriter(file_, true);
+    try
+    {
+      for (int i = 0; i < callTree_.getDirtyNodeCount(); i++)
+      {
+        int node = callTree_.getDirtyNode(i);
+        if (callTree_.isLive(node))
+        {
+          writeNode(writer, node);
+        }
+      }
+    }
+    finally
+    {
+      writer.close();
+    }
+  }
+
+  /**
+   * Rewrites the complete file, using a temporary file which replaces the target afterwards.
+   */
+  private void writeAll() throws IOException
+  {
+    Arrays.fill(writtenCounts_, 0);
+    lineCount_ = 0;
+    File tmpFile = new File(file_.getPath() + ".tmp");
+    Writer writer = openWriter(tmpFile, false);
+    try
+    {
+      int[] stack = new int[callTree_.getNodeCount()];
+      int stackSize = 0;
+      stack[stackSize++] = CallTree.ROOT;
+      while (stackSize > 0)
+      {
+        int node = stack[--stackSize];
+        writeNode(writer, node);
+        for (int child = callTree_.getFirstChild(node); child != CallTree.NONE; child = callTree_
+            .getNextSibling(child))
+        {
+          stack[stackSize++] = child;
+        }
+      }
+    }
+    finally
+    {
+      writer.close();
+    }
+    if (!tmpFile.renameTo(file_))
+    {
+      // renameTo does not replace existing files on all platforms
+      file_.delete();
+      if (!tmpFile.renameTo(file_))
+      {
+        throw new IOException("Could not replace " + file_);
+      }
+    }
+    structureVersion_ = callTree_.getStructureVersion();
+  }
+
+  /**
+   * Appends the stack of the given node if its self value increased.
+   */
+  private void writeNode(Writer writer, int node) throws IOException
+  {
+    if (node >= writtenCounts_.length)
+    {
+      writtenCounts_ = Arrays.copyOf(writtenCounts_,
+          Math.max(node + 1, writtenCounts_.length * 2));
+    }
+    long count = callTree_.getSelf(node) / unit_;
+    long delta = count - writtenCounts_[node];
+    if (delta <= 0)
+    {
+      return;
+    }
+    writtenCounts_[node] = count;
+
+    int depth = 0;
+    for (int n = node; n != CallTree.ROOT; n = callTree_.getParent(n))
+    {
+      if (depth == pathBuffer_.length)
+      {
+        pathBuffer_ = Arrays.copyOf(pathBuffer_, depth * 2);
+      }
+      pathBuffer_[depth++] = callTree_.getFrame(n);
+    }
+    if (depth == 0)
+    {
+      writer.write(PRUNED_FRAME);
+    }
+    for (int i = depth - 1; i >= 0; i--)
+    {
+      writer.write(frames_.getFrameName(pathBuffer_[i]));
+      if (i > 0)
+      {
+        writer.write(';');
+      }
+    }
+    writer.write(' ');
+    writer.write(Long.toString(delta));
+    writer.write('\n');
+    lineCount_++;
+  }
+
+  private static Writer openWriter(File file, boolean append)
+      throws IOException
+  {
+    return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+        file, append), "UTF-8"));
+  }
+
+  public File getFile()
+  {
+    return file_;
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Maps stack frames (class and method name) to dense int ids.
+ *
+ * Ids are assigned in ascending order, starting with 0, and never change.
+ * The lookup uses an open-addressing hash table (linear probing) on the
+ * (class name, method name) pair, so looking up a known frame neither
+ * concatenates strings nor allocates any objects.
+ *
+ * @author paru
+ *
+ */
+public class FrameDictionary
+{
+  private static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * hash table slots, containing frame id + 1 (0 denotes an empty slot)
+   */
+  private int[]            table_           = new int[INITIAL_CAPACITY * 2];
+
+  private int[]            hashes_          = new int[INITIAL_CAPACITY];
+
+  private String[]         classNames_      = new String[INITIAL_CAPACITY];
+
+  private String[]         methodNames_     = new String[INITIAL_CAPACITY];
+
+  private int              size_            = 0;
+
+  /**
+   * Returns the id of the given frame, assigning a new one if the frame is unknown.
+   *
+   * @param className
+   * @param methodName
+   * @return
+   */
+  public int intern(String className, String methodName)
+  {
+    int hash = hash(className, methodName);
+    int mask = table_.length - 1;
+    int slot = hash & mask;
+    while (true)
+    {
+      int id = table_[slot] - 1;
+      if (id < 0)
+      {
+        return add(slot, hash, className, methodName);
+      }
+      if (hashes_[id] == hash && classNames_[id].equals(className)
+          && methodNames_[id].equals(methodName))
+      {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  public int intern(StackTraceElement stElement)
+  {
+    return intern(stElement.getClassName(), stElement.getMethodName());
+  }
+
+  private int add(int slot, int hash, String className, String methodName)
+  {
+    int id = size_++;
+    if (id == classNames_.length)
+    {
+      int capacity = id * 2;
+      hashes_ = Arrays.copyOf(hashes_, capacity);
+      classNames_ = Arrays.copyOf(classNames_, capacity);
+      methodNames_ = Arrays.copyOf(methodNames_, capacity);
+    }
+    hashes_[id] = hash;
+    classNames_[id] = className;
+    methodNames_[id] = methodName;
+    table_[slot] = id + 1;
+    // keep the load factor below 0.5
+    if (size_ * 2 > table_.length)
+    {
+      rehash(table_.length * 2);
+    }
+    return id;
+  }
+
+  private void rehash(int capacity)
+  {
+    int[] table = new int[capacity];
+    int mask = capacity - 1;
+    for (int id = 0; id < size_; id++)
+    {
+      int slot = hashes_[id] & mask;
+      while (table[slot] != 0)
+      {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id + 1;
+    }
+    table_ = table;
+  }
+
+  private static int hash(String className, String methodName)
+  {
+    int h = className.hashCode() * 31 + methodName.hashCode();
+    // spread the bits, as the table size is a power of two
+    h ^= (h >>> 16);
+    h *= 0x85ebca6b;
+    h ^= (h >>> 13);
+    return h;
+  }
+
+  public String getClassName(int id)
+  {
+    return classNames_[id];
+  }
+
+  public String getMethodName(int id)
+  {
+    return methodNames_[id];
+  }
+
+  /**
+   * Returns the display name of a frame: the class name and method name, separated by a dot.
+   * Synthetic frames (with an empty class name) are represented by their method name only.
+   *
+   * @param id
+   * @return
+   */
+  public String getFrameName(int id)
+  {
+    if (classNames_[id].length() == 0)
+    {
+      return methodNames_[id];
+    }
+    return classNames_[id] + "." + methodNames_[id];
+  }
+
+  /**
+   * @return the number of interned frames
+   */
+  public int size()
+  {
+    return size_;
+  }
+}
@@ -0,0 +1,207 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which stack frames indicate that a thread is idle although its state is RUNNABLE.
+ *
+ * Threads blocked in native code (e.g. waiting for network packets or selector events)
+ * are reported as RUNNABLE by the jvm, but do not consume any cpu time.
+ * Frames are identified by their class and method name; the method name "*" matches all methods of a class.
+ *
+ * @author paru
+ *
+ */
+public class IdleFrameClassifier
+{
+  private static final String   ANY_METHOD         = "*";
+
+  /**
+   * Native frames of the jdk (8 and later) which block the calling thread.
+   */
+  private static final String[] DEFAULT_IDLE_FRAMES = new String[] {
+      // selectors
+      "sun.nio.ch.EPollArrayWrapper.epollWait", "sun.nio.ch.EPoll.wait",
+      "sun.nio.ch.EPoll.epollWait", "sun.nio.ch.KQueue.poll",
+      "sun.nio.ch.KQueue.keventPoll", "sun.nio.ch.KQueueArrayWrapper.kevent0",
+      "sun.nio.ch.PollArrayWrapper.poll0",
+      "sun.nio.ch.WindowsSelectorImpl$SubSelector.poll0",
+      "sun.nio.ch.Iocp.getQueuedCompletionStatus",
+      "sun.nio.ch.DevPollArrayWrapper.poll0",
+      // blocking socket i/o
+      "sun.nio.ch.Net.poll", "sun.nio.ch.Net.accept",
+      "sun.nio.ch.Net.connect0", "sun.nio.ch.SocketDispatcher.read0",
+      "sun.nio.ch.SocketDispatcher.readv0",
+      "sun.nio.ch.DatagramDispatcher.read0",
+      "sun.nio.ch.DatagramChannelImpl.receive0",
+      "sun.nio.ch.ServerSocketChannelImpl.accept0",
+      "java.net.SocketInputStream.socketRead0",
+      "java.net.PlainSocketImpl.socketAccept",
+      "java.net.PlainSocketImpl.socketConnect",
+      "java.net.DualStackPlainSocketImpl.accept0",
+      "java.net.DualStackPlainSocketImpl.waitForNewConnection",
+      "java.net.PlainDatagramSocketImpl.receive0",
+      "java.net.Inet4AddressImpl.lookupAllHostAddr",
+      "java.net.Inet6AddressImpl.lookupAllHostAddr",
+      // parking, waiting and sleeping
+      "sun.misc.Unsafe.park", "jdk.internal.misc.Unsafe.park",
+      "java.lang.Object.wait", "java.lang.Object.wait0",
+      "java.lang.Thread.sleep", "java.lang.Thread.sleep0",
+      // child processes, console and file system events
+      "java.lang.UNIXProcess.waitForProcessExit",
+      "java.lang.ProcessImpl.waitForProcessExit",
+      "java.lang.ProcessImpl.waitForInterruptibly",
+      "java.lang.ProcessHandleImpl.waitForProcessExit0",
+      "java.io.FileInputStream.readBytes", "java.io.FileInputStream.read0",
+      "sun.nio.fs.LinuxWatchService.poll",
+      "sun.nio.fs.BsdNativeDispatcher.kevent",
+      "sun.nio.ch.FileDispatcherImpl.read0" };
+
+  /**
+   * idle method names per class name
+   */
+  private Map<String, Set<String>> idleMethods_ = new HashMap<String, Set<String>>();
+
+  /**
+   * Creates a classifier containing the idle frames of the jdk.
+   *
+   * @return
+   */
+  public static IdleFrameClassifier createDefault()
+  {
+    IdleFrameClassifier classifier = new IdleFrameClassifier();
+    for (String frame : DEFAULT_IDLE_FRAMES)
+    {
+      classifier.addIdleFrame(frame);
+    }
+    return classifier;
+  }
+
+  /**
+   * @param frame the class name and method name, separated by a dot
+   */
+  public void addIdleFrame(String frame)
+  {
+    int dot = getMethodSeparator(frame);
+    addIdleFrame(frame.substring(0, dot), frame.substring(dot + 1));
+  }
+
+  public void addIdleFrame(String className, String methodName)
+  {
+    Set<String> methods = idleMethods_.get(className);
+    if (methods == null)
+    {
+      methods = new HashSet<String>();
+      idleMethods_.put(className, methods);
+    }
+    methods.add(methodName);
+  }
+
+  /**
+   * @param frame the class name and method name, separated by a dot
+   */
+  public void removeIdleFrame(String frame)
+  {
+    int dot = getMethodSeparator(frame);
+    Set<String> methods = idleMethods_.get(frame.substring(0, dot));
+    if (methods != null)
+    {
+      methods.remove(frame.substring(dot + 1));
+    }
+  }
+
+  private static int getMethodSeparator(String frame)
+  {
+    int dot = frame.lastIndexOf('.');
+    if (dot <= 0 || dot == frame.length() - 1)
+    {
+      throw new IllegalArgumentException("Invalid frame (class.method): "
+          + frame);
+    }
+    return dot;
+  }
+
+  /**
+   * Adds the frames of the given file.
+   *
+   * Each line contains a frame (class name and method name, separated by a dot),
+   * prefixed by '-' to remove a frame of the default catalog.
+   * Empty lines and lines starting with '#' are ignored.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void load(File file) throws IOException
+  {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), "UTF-8"));
+    try
+    {
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#"))
+        {
+          continue;
+        }
+        if (line.startsWith("-"))
+        {
+          removeIdleFrame(line.substring(1).trim());
+        }
+        else if (line.startsWith("+"))
+        {
+          addIdleFrame(line.substring(1).trim());
+        }
+        else
+        {
+          addIdleFrame(line);
+        }
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+  /**
+   * @param className
+   * @param methodName
+   * @return true if a thread executing the given frame does not consume cpu time
+   */
+  public boolean isIdle(String className, String methodName)
+  {
+    Set<String> methods = idleMethods_.get(className);
+    return methods != null
+        && (methods.contains(methodName) || methods.contains(ANY_METHOD));
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jvmtop.util.TopK;
+
+/**
+ * Keeps the hits per source line of the sampled frames.
+ *
+ * The hits are stored in a single primitive table, keyed by frame id and line number.
+ * To keep the memory bounded, a quarter of the lines is evicted whenever the number of lines exceeds the limit.
+ * Lines are evicted by a score which is halved on each eviction, so that lines which are no longer hit
+ * fade out and recently added lines are not evicted in favor of lines which were hot a long time ago.
+ *
+ * @author paru
+ *
+ */
+public class LineHits
+{
+  public static final int DEFAULT_MAX_LINES = 10000;
+
+  /**
+   * the fraction of the lines evicted at once is 1 / EVICT_FRACTION
+   */
+  private static final int EVICT_FRACTION   = 4;
+
+  /**
+   * keyed by frame id (upper 32 bits) and line number (lower 32 bits)
+   */
+  private LongLongMap     hits_             = new LongLongMap();
+
+  /**
+   * the decayed hits used for eviction, same keys as hits_
+   */
+  private LongLongMap     scores_           = new LongLongMap();
+
+  private int             maxLines_;
+
+  private long            evictedHits_      = 0;
+
+  public LineHits()
+  {
+    this(DEFAULT_MAX_LINES);
+  }
+
+  /**
+   * @param maxLines the maximum number of lines kept
+   */
+  public LineHits(int maxLines)
+  {
+    super();
+    if (maxLines <= 0)
+    {
+      throw new IllegalArgumentException("Maximum number of lines must be positive");
+    }
+    maxLines_ = maxLines;
+  }
+
+  public void add(int frame, int lineNumber, long hits)
+  {
+    long key = ((long) frame << 32) | (lineNumber & 0xFFFFFFFFL);
+    hits_.add(key, hits);
+    scores_.add(key, hits);
+    if (hits_.size() > maxLines_)
+    {
+      evict();
+    }
+  }
+
+  /**
+   * Evicts the lines with the lowest scores until 3/4 of the maximum number of lines are left,
+   * and halves the scores of the remaining ones.
+   */
+  private void evict()
+  {
+    long[] scores = new long[scores_.size()];
+    int count = 0;
+    for (int slot = 0; slot < scores_.capacity(); slot++)
+    {
+      if (scores_.isUsed(slot))
+      {
+        scores[count++] = scores_.valueAt(slot);
+      }
+    }
+    Arrays.sort(scores);
+    int evictCount = count - Math.max(1, maxLines_ - maxLines_ / EVICT_FRACTION);
+    long maxScore = scores[evictCount - 1];
+    // lines scoring maxScore are only evicted up to evictCount
+    int maxScoreEvictions = 0;
+    for (int i = evictCount - 1; i >= 0 && scores[i] == maxScore; i--)
+    {
+      maxScoreEvictions++;
+    }
+
+    LongLongMap hits = new LongLongMap(maxLines_);
+    LongLongMap decayedScores = new LongLongMap(maxLines_);
+    for (int slot = 0; slot < scores_.capacity(); slot++)
+    {
+      if (scores_.isUsed(slot))
+      {
+        long key = scores_.keyAt(slot);
+        long score = scores_.valueAt(slot);
+        if (score < maxScore || (score == maxScore && maxScoreEvictions-- > 0))
+        {
+          evictedHits_ += hits_.get(key, 0);
+          continue;
+        }
+        hits.put(key, hits_.get(key, 0));
+        decayedScores.put(key, score / 2);
+      }
+    }
+    hits_ = hits;
+    scores_ = decayedScores;
+  }
+
+  /**
+   * Returns the lines with the most hits of each of the given frames.
+   *
+   * @param frames the frame ids
+   * @param limit the maximum number of lines per frame
+   * @return the lines per frame id, ordered by their hits (descending)
+   */
+  public Map<Integer, List<LineStats>> getTopLines(int[] frames, int limit)
+  {
+    Map<Integer, TopK<LineStats>> topLines = new HashMap<Integer, TopK<LineStats>>();
+    for (int frame : frames)
+    {
+      topLines.put(frame, new TopK<LineStats>(limit, LineStats.HITS_COMPARATOR));
+    }
+    for (int slot = 0; slot < hits_.capacity(); slot++)
+    {
+      if (hits_.isUsed(slot))
+      {
+        long key = hits_.keyAt(slot);
+        TopK<LineStats> top = topLines.get((int) (key >>> 32));
+        if (top != null)
+        {
+          top.offer(new LineStats((int) key, hits_.valueAt(slot)));
+        }
+      }
+    }
+    Map<Integer, List<LineStats>> result = new HashMap<Integer, List<LineStats>>();
+    for (Map.Entry<Integer, TopK<LineStats>> entry : topLines.entrySet())
+    {
+      result.put(entry.getKey(), entry.getValue().toList());
+    }
+    return result;
+  }
+
+  /**
+   * @return the sum of the hits of all lines which have been evicted
+   */
+  public long getEvictedHits()
+  {
+    return evictedHits_;
+  }
+
+  public int size()
+  {
+    return hits_.size();
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Comparator;
+
+/**
+ * Represents the sampled hits of a single source line of a method.
+ *
+ * @author paru
+ *
+ */
+public class LineStats
+{
+  /**
+   * orders by hits, descending
+   */
+  public static final Comparator<LineStats> HITS_COMPARATOR = new HitsComparator();
+
+  private static final class HitsComparator implements Comparator<LineStats>
+  {
+    @Override
+    public int compare(LineStats o1, LineStats o2)
+    {
+      return Long.valueOf(o2.hits_).compareTo(o1.hits_);
+    }
+  }
+
+  private int  lineNumber_ = 0;
+
+  private long hits_       = 0;
+
+  /**
+   * @param lineNumber the line number, negative if unknown (see StackTraceElement.getLineNumber())
+   * @param hits
+   */
+  public LineStats(int lineNumber, long hits)
+  {
+    super();
+    lineNumber_ = lineNumber;
+    hits_ = hits;
+  }
+
+  public int getLineNumber()
+  {
+    return lineNumber_;
+  }
+
+  public long getHits()
+  {
+    return hits_;
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+/**
+ * Represents the contention on a lock (monitor or java.util.concurrent lock),
+ * optionally restricted to the frame which tried to acquire it.
+ *
+ * @author paru
+ *
+ */
+public class LockStats implements Comparable<LockStats>
+{
+  private String lockClassName_ = null;
+
+  private String className_     = null;
+
+  private String methodName_    = null;
+
+  private long   blockedMillis_ = 0;
+
+  private long   blockedCount_  = 0;
+
+  /**
+   * @param lockClassName the class of the lock object
+   * @param className the class of the acquiring frame, null if aggregated over all frames
+   * @param methodName the method of the acquiring frame, null if aggregated over all frames
+   * @param blockedMillis the time threads were blocked on the lock (in milliseconds)
+   * @param blockedCount the number of times threads were blocked on the lock
+   */
+  public LockStats(String lockClassName, String className, String methodName,
+      long blockedMillis, long blockedCount)
+  {
+    super();
+    lockClassName_ = lockClassName;
+    className_ = className;
+    methodName_ = methodName;
+    blockedMillis_ = blockedMillis;
+    blockedCount_ = blockedCount;
+  }
+
+  public String getLockClassName()
+  {
+    return lockClassName_;
+  }
+
+  public String getClassName()
+  {
+    return className_;
+  }
+
+  public String getMethodName()
+  {
+    return methodName_;
+  }
+
+  public long getBlockedMillis()
+  {
+    return blockedMillis_;
+  }
+
+  public long getBlockedCount()
+  {
+    return blockedCount_;
+  }
+
+  /**
+   * Compares the blocked time, descending.
+   */
+  @Override
+  public int compareTo(LockStats o)
+  {
+    return Long.valueOf(o.blockedMillis_).compareTo(blockedMillis_);
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Minimal open-addressing hash map with primitive long keys and values,
+ * avoiding the boxing overhead of a Map&lt;Long, Long&gt; in the sampling hot path.
+ *
+ * Long.MIN_VALUE is reserved and cannot be used as key.
+ * Entries cannot be removed individually, only clear() is supported.
+ *
+ * @author paru
+ *
+ */
+public class LongLongMap
+{
+  private static final long EMPTY = Long.MIN_VALUE;
+
+  private long[]            keys_;
+
+  private long[]            values_;
+
+  private int               size_  = 0;
+
+  public LongLongMap()
+  {
+    this(64);
+  }
+
+  public LongLongMap(int expectedSize)
+  {
+    super();
+    int capacity = 16;
+    while (capacity < expectedSize * 2)
+    {
+      capacity *= 2;
+    }
+    keys_ = new long[capacity];
+    values_ = new long[capacity];
+    Arrays.fill(keys_, EMPTY);
+  }
+
+  /**
+   * Returns the value of key, or defaultValue if the key is not contained.
+   */
+  public long get(long key, long defaultValue)
+  {
+    int slot = findSlot(keys_, key);
+    return keys_[slot] == EMPTY ? defaultValue : values_[slot];
+  }
+
+  public boolean containsKey(long key)
+  {
+    return keys_[findSlot(keys_, key)] != EMPTY;
+  }
+
+  public void put(long key, long value)
+  {
+    values_[insertSlot(key)] = value;
+  }
+
+  /**
+   * Adds delta to the value of key (a missing key counts as 0).
+   *
+   * @return the new value
+   */
+  public long add(long key, long delta)
+  {
+    int slot = insertSlot(key);
+    values_[slot] += delta;
+    return values_[slot];
+  }
+
+  private int insertSlot(long key)
+  {
+    if (key == EMPTY)
+    {
+      throw new IllegalArgumentException("Unsupported key " + key);
+    }
+    int slot = findSlot(keys_, key);
+    if (keys_[slot] == EMPTY)
+    {
+      if ((size_ + 1) * 2 > keys_.length)
+      {
+        rehash(keys_.length * 2);
+        slot = findSlot(keys_, key);
+      }
+      keys_[slot] = key;
+      values_[slot] = 0;
+      size_++;
+    }
+    return slot;
+  }
+
+  private static int findSlot(long[] keys, long key)
+  {
+    int mask = keys.length - 1;
+    long h = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (h ^ (h >>> 32)) & mask;
+    while (keys[slot] != EMPTY && keys[slot] != key)
+    {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void rehash(int capacity)
+  {
+    long[] keys = new long[capacity];
+    long[] values = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    for (int i = 0; i < keys_.length; i++)
+    {
+      if (keys_[i] != EMPTY)
+      {
+        int slot = findSlot(keys, keys_[i]);
+        keys[slot] = keys_[i];
+        values[slot] = values_[i];
+      }
+    }
+    keys_ = keys;
+    values_ = values;
+  }
+
+  public void clear()
+  {
+    if (size_ > 0)
+    {
+      Arrays.fill(keys_, EMPTY);
+      size_ = 0;
+    }
+  }
+
+  public int size()
+  {
+    return size_;
+  }
+
+  /**
+   * @return the number of slots, see isUsed(), keyAt() and valueAt() for iterating
+   */
+  public int capacity()
+  {
+    return keys_.length;
+  }
+
+  public boolean isUsed(int slot)
+  {
+    return keys_[slot] != EMPTY;
+  }
+
+  public long keyAt(int slot)
+  {
+    return keys_[slot];
+  }
+
+  public long valueAt(int slot)
+  {
+    return values_[slot];
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Comparator;
+
+/**
+ * Represents the change of the share of a method between two profiles.
+ *
+ * @author paru
+ *
+ */
+public class MethodDiff
+{
+  /**
+   * orders by the absolute change of the share, descending
+   */
+  public static final Comparator<MethodDiff> DELTA_COMPARATOR = new DeltaComparator();
+
+  private static final class DeltaComparator implements Comparator<MethodDiff>
+  {
+    @Override
+    public int compare(MethodDiff o1, MethodDiff o2)
+    {
+      return Double.compare(Math.abs(o2.getDelta()), Math.abs(o1.getDelta()));
+    }
+  }
+
+  private String className_   = null;
+
+  private String methodName_  = null;
+
+  private double baseShare_   = 0;
+
+  private double targetShare_ = 0;
+
+  /**
+   * @param className
+   * @param methodName
+   * @param baseShare the share (in percent) of the method in the base profile
+   * @param targetShare the share (in percent) of the method in the target profile
+   */
+  public MethodDiff(String className, String methodName, double baseShare,
+      double targetShare)
+  {
+    super();
+    className_ = className;
+    methodName_ = methodName;
+    baseShare_ = baseShare;
+    targetShare_ = targetShare;
+  }
+
+  public String getClassName()
+  {
+    return className_;
+  }
+
+  public String getMethodName()
+  {
+    return methodName_;
+  }
+
+  public double getBaseShare()
+  {
+    return baseShare_;
+  }
+
+  public double getTargetShare()
+  {
+    return targetShare_;
+  }
+
+  /**
+   * @return the change of the share in percentage points, positive if the method got more expensive
+   */
+  public double getDelta()
+  {
+    return targetShare_ - baseShare_;
+  }
+}
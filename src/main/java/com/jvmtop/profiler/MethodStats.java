@@ -20,31 +20,93 @@
  */
 package com.jvmtop.profiler;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Comparator;
 
 /**
- * Stores method invocations in a thread-safe manner.
+ * Represents the sampled hits (e.g. cpu time) of a method at a given point in time.
  *
  * @author paru
  *
  */
 public class MethodStats implements Comparable<MethodStats>
 {
-  private AtomicLong hits_       = new AtomicLong(0);
+  /**
+   * orders by hits, descending
+   */
+  public static final Comparator<MethodStats> HITS_COMPARATOR        = new HitsComparator();
+
+  /**
+   * orders by recent hits, descending
+   */
+  public static final Comparator<MethodStats> RECENT_HITS_COMPARATOR = new RecentHitsComparator();
+
+  private static final class HitsComparator implements Comparator<MethodStats>
+  {
+    @Override
+    public int compare(MethodStats o1, MethodStats o2)
+    {
+      return o1.compareTo(o2);
+    }
+  }
+
+  private static final class RecentHitsComparator implements
+      Comparator<MethodStats>
+  {
+    @Override
+    public int compare(MethodStats o1, MethodStats o2)
+    {
+      return Long.valueOf(o2.recentHits_).compareTo(o1.recentHits_);
+    }
+  }
+
+  private long          hits_       = 0;
 
   private String        className_  = null;
 
   private String        methodName_ = null;
 
+  private long[]        stateHits_  = null;
+
+  private long          recentHits_ = -1;
+
   /**
    * @param className
    * @param methodName
+   * @param hits
    */
-  public MethodStats(String className, String methodName)
+  public MethodStats(String className, String methodName, long hits)
   {
     super();
     className_ = className;
     methodName_ = methodName;
+    hits_ = hits;
+  }
+
+  /**
+   * @param className
+   * @param methodName
+   * @param hits
+   * @param stateHits the hits per thread state, indexed by Thread.State.ordinal()
+   */
+  public MethodStats(String className, String methodName, long hits,
+      long[] stateHits)
+  {
+    this(className, methodName, hits);
+    stateHits_ = stateHits;
+  }
+
+  /**
+   * @param className
+   * @param methodName
+   * @param hits
+   * @param recentHits the hits of the recent past (see RecentHits), -1 if unknown
+   * @param stateHits the hits per thread state, indexed by Thread.State.ordinal(), or null
+   */
+  public MethodStats(String className, String methodName, long hits,
+      long recentHits, long[] stateHits)
+  {
+    this(className, methodName, hits, stateHits);
+    recentHits_ = recentHits;
   }
 
 
@@ -111,14 +173,37 @@ public class MethodStats implements Comparable<MethodStats>
    */
   public int compareTo(MethodStats o)
   {
-    return Long.valueOf(o.hits_.get()).compareTo(hits_.get());
+    return Long.valueOf(o.hits_).compareTo(hits_);
   }
 
-  public AtomicLong getHits()
+  public long getHits()
   {
     return hits_;
   }
 
+  /**
+   * Returns the hits which were sampled while the thread was in the given state.
+   *
+   * @param state
+   * @return the hits, or -1 if the hits are not split by thread state
+   */
+  public long getHits(Thread.State state)
+  {
+    if (stateHits_ == null)
+    {
+      return -1;
+    }
+    return stateHits_[state.ordinal()];
+  }
+
+  /**
+   * @return the hits of the recent past, or -1 if unknown
+   */
+  public long getRecentHits()
+  {
+    return recentHits_;
+  }
+
   public String getClassName()
   {
     return className_;
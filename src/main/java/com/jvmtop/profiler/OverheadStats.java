@@ -0,0 +1,181 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+/**
+ * The costs of sampling, both in the monitored jvm and in jvmtop itself,
+ * measured since the sampling has been started.
+ *
+ * @author paru
+ *
+ */
+public class OverheadStats
+{
+  private final long elapsedNanos_;
+
+  private final long tickMedianMicros_;
+
+  private final long tickP99Micros_;
+
+  private final long tickMaxMicros_;
+
+  private final long stackRequestP99Micros_;
+
+  private final long bytesSent_;
+
+  private final long bytesReceived_;
+
+  private final long ownCpuNanos_;
+
+  private final long samplingSafepointNanos_;
+
+  private final long safepointNanos_;
+
+  /**
+   * @param elapsedNanos the wall-clock time since the sampling has been started
+   * @param tickMedianMicros the median duration of a sample
+   * @param tickP99Micros the 99th percentile of the duration of a sample
+   * @param tickMaxMicros the maximum duration of a sample
+   * @param stackRequestP99Micros the 99th percentile of the duration of the stack requests (e.g. dumpAllThreads)
+   * @param bytesSent the bytes sent over JMX, -1 if unknown
+   * @param bytesReceived the bytes received over JMX, -1 if unknown
+   * @param ownCpuNanos the cpu time consumed by the jvmtop process, -1 if unknown
+   * @param samplingSafepointNanos the safepoint time of the monitored jvm during the stack requests, -1 if unknown
+   * @param safepointNanos the total safepoint time of the monitored jvm, -1 if unknown
+   */
+  public OverheadStats(long elapsedNanos, long tickMedianMicros,
+      long tickP99Micros, long tickMaxMicros, long stackRequestP99Micros,
+      long bytesSent, long bytesReceived, long ownCpuNanos,
+      long samplingSafepointNanos, long safepointNanos)
+  {
+    super();
+    elapsedNanos_ = elapsedNanos;
+    tickMedianMicros_ = tickMedianMicros;
+    tickP99Micros_ = tickP99Micros;
+    tickMaxMicros_ = tickMaxMicros;
+    stackRequestP99Micros_ = stackRequestP99Micros;
+    bytesSent_ = bytesSent;
+    bytesReceived_ = bytesReceived;
+    ownCpuNanos_ = ownCpuNanos;
+    samplingSafepointNanos_ = samplingSafepointNanos;
+    safepointNanos_ = safepointNanos;
+  }
+
+  /**
+   * @return the wall-clock time (in seconds) since the sampling has been started
+   */
+  public double getElapsedSeconds()
+  {
+    return elapsedNanos_ / 1000000000d;
+  }
+
+  public double getTickMedianMillis()
+  {
+    return tickMedianMicros_ / 1000d;
+  }
+
+  public double getTickP99Millis()
+  {
+    return tickP99Micros_ / 1000d;
+  }
+
+  public double getTickMaxMillis()
+  {
+    return tickMaxMicros_ / 1000d;
+  }
+
+  public double getStackRequestP99Millis()
+  {
+    return stackRequestP99Micros_ / 1000d;
+  }
+
+  /**
+   * @return the bytes transferred over JMX (both directions), -1 if unknown
+   */
+  public long getBytesTransferred()
+  {
+    if (bytesSent_ < 0 || bytesReceived_ < 0)
+    {
+      return -1;
+    }
+    return bytesSent_ + bytesReceived_;
+  }
+
+  /**
+   * @return the bytes transferred over JMX (both directions) per second, NaN if unknown
+   */
+  public double getBytesPerSecond()
+  {
+    long bytes = getBytesTransferred();
+    if (bytes < 0 || elapsedNanos_ <= 0)
+    {
+      return Double.NaN;
+    }
+    return bytes / getElapsedSeconds();
+  }
+
+  public long getBytesSent()
+  {
+    return bytesSent_;
+  }
+
+  public long getBytesReceived()
+  {
+    return bytesReceived_;
+  }
+
+  /**
+   * @return the cpu usage of the jvmtop process (in percent of one cpu), NaN if unknown
+   */
+  public double getOwnCpuLoad()
+  {
+    return toPercent(ownCpuNanos_);
+  }
+
+  /**
+   * Returns the share of time the monitored jvm spent in safepoints while stacks were requested.
+   * This is an upper bound of the pauses caused by sampling, as it includes
+   * other safepoints (e.g. of the garbage collector) which coincided with a request.
+   *
+   * @return the share in percent, NaN if unknown
+   */
+  public double getSamplingSafepointLoad()
+  {
+    return toPercent(samplingSafepointNanos_);
+  }
+
+  /**
+   * @return the share of time the monitored jvm spent in safepoints (for any reason), NaN if unknown
+   */
+  public double getSafepointLoad()
+  {
+    return toPercent(safepointNanos_);
+  }
+
+  private double toPercent(long nanos)
+  {
+    if (nanos < 0 || elapsedNanos_ <= 0)
+    {
+      return Double.NaN;
+    }
+    return (double) nanos / elapsedNanos_ * 100;
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * Decides which classes are excluded from profiling, based on class name prefixes.
+ *
+ * Rules are either excludes or includes; if several rules match a class name,
+ * the one with the longest prefix wins (so e.g. "com.mycompany.lib." can be excluded
+ * while "com.mycompany." is included). Classes not matching any rule are included.
+ *
+ * The rules are compiled into a character trie, so a decision takes O(length of the class name),
+ * independent of the number of rules.
+ *
+ * @author paru
+ *
+ */
+public class PackageFilter
+{
+  //TODO: these exception list should be expanded to the most common 3rd-party library packages
+  private static final String[] DEFAULT_EXCLUDES = new String[] {
+      "org.eclipse.", "org.apache.", "java.", "sun.", "com.sun.", "javax.",
+      "oracle.", "com.trilead.", "org.junit.", "org.mockito.",
+      "org.hibernate.", "com.ibm.", "com.caucho.", "jdk." };
+
+  private static final byte     NO_RULE          = 0;
+
+  private static final byte     EXCLUDE          = 1;
+
+  private static final byte     INCLUDE          = 2;
+
+  private Node                  root_            = new Node();
+
+  private int                   ruleCount_       = 0;
+
+  /**
+   * A trie node, the children are sorted by their character.
+   */
+  private static class Node
+  {
+    private char[] chars_    = new char[0];
+
+    private Node[] children_ = new Node[0];
+
+    private byte   rule_     = NO_RULE;
+
+    private Node getChild(char c)
+    {
+      int index = Arrays.binarySearch(chars_, c);
+      return index >= 0 ? children_[index] : null;
+    }
+
+    private Node getOrAddChild(char c)
+    {
+      int index = Arrays.binarySearch(chars_, c);
+      if (index >= 0)
+      {
+        return children_[index];
+      }
+      index = -index - 1;
+      char[] chars = new char[chars_.length + 1];
+      Node[] children = new Node[children_.length + 1];
+      System.arraycopy(chars_, 0, chars, 0, index);
+      System.arraycopy(children_, 0, children, 0, index);
+      System.arraycopy(chars_, index, chars, index + 1, chars_.length - index);
+      System.arraycopy(children_, index, children, index + 1, children_.length
+          - index);
+      chars[index] = c;
+      children[index] = new Node();
+      chars_ = chars;
+      children_ = children;
+      return children[index];
+    }
+  }
+
+  /**
+   * Creates a filter containing the default excludes (jdk and common 3rd-party library packages).
+   *
+   * @return
+   */
+  public static PackageFilter createDefault()
+  {
+    PackageFilter filter = new PackageFilter();
+    for (String prefix : DEFAULT_EXCLUDES)
+    {
+      filter.addExclude(prefix);
+    }
+    return filter;
+  }
+
+  public void addExclude(String prefix)
+  {
+    addRule(prefix, EXCLUDE);
+  }
+
+  public void addInclude(String prefix)
+  {
+    addRule(prefix, INCLUDE);
+  }
+
+  private void addRule(String prefix, byte rule)
+  {
+    Node node = root_;
+    for (int i = 0; i < prefix.length(); i++)
+    {
+      node = node.getOrAddChild(prefix.charAt(i));
+    }
+    if (node.rule_ == NO_RULE)
+    {
+      ruleCount_++;
+    }
+    node.rule_ = rule;
+  }
+
+  /**
+   * Adds the rules of the given file.
+   *
+   * Each line contains a class name prefix, prefixed by '+' for an include rule
+   * or by '-' (or nothing) for an exclude rule. Empty lines and lines starting with '#' are ignored.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void load(File file) throws IOException
+  {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(file), "UTF-8"));
+    try
+    {
+      String line;
+      while ((line = reader.readLine()) != null)
+      {
+        line = line.trim();
+        if (line.length() == 0 || line.startsWith("#"))
+        {
+          continue;
+        }
+        if (line.startsWith("+"))
+        {
+          addInclude(line.substring(1).trim());
+        }
+        else if (line.startsWith("-"))
+        {
+          addExclude(line.substring(1).trim());
+        }
+        else
+        {
+          addExclude(line);
+        }
+      }
+    }
+    finally
+    {
+      reader.close();
+    }
+  }
+
+  /**
+   * @param className
+   * @return true if the class is excluded, i.e. the longest matching rule is an exclude rule
+   */
+  public boolean isExcluded(String className)
+  {
+    Node node = root_;
+    byte rule = node.rule_;
+    for (int i = 0; i < className.length() && node != null; i++)
+    {
+      node = node.getChild(className.charAt(i));
+      if (node != null && node.rule_ != NO_RULE)
+      {
+        rule = node.rule_;
+      }
+    }
+    return rule == EXCLUDE;
+  }
+
+  /**
+   * @return the number of rules
+   */
+  public int size()
+  {
+    return ruleCount_;
+  }
+}
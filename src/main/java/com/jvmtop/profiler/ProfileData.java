@@ -0,0 +1,432 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A named, persistent copy of the results of a profiler: the hits per method
+ * and the sampled call tree.
+ *
+ * Profiles are stored in a compact binary format (gzip compressed):
+ * only the frames which are referenced are written (once, in a frame table),
+ * call tree nodes are written in pre-order and refer to their parent by index.
+ * As the call tree is capped, the size of a profile does not depend on how long it has been sampled.
+ *
+ * @author paru
+ *
+ */
+public class ProfileData
+{
+  private static final int MAGIC   = 0x4a564d54;
+
+  private static final int VERSION = 1;
+
+  private String           name_;
+
+  private String           type_;
+
+  private long             timestamp_;
+
+  private long             total_;
+
+  private long             sampledNanos_;
+
+  private long             updateCount_;
+
+  /**
+   * the self value of the call tree root (samples which could not be added to the capped tree)
+   */
+  private long             rootSelf_;
+
+  private String[]         classNames_;
+
+  private String[]         methodNames_;
+
+  /**
+   * frame and hits of each method
+   */
+  private int[]            methodFrames_;
+
+  private long[]           methodHits_;
+
+  /**
+   * parent (index of a previous node, -1 for children of the root), frame and self value
+   * of each call tree node, in pre-order
+   */
+  private int[]            nodeParents_;
+
+  private int[]            nodeFrames_;
+
+  private long[]           nodeSelf_;
+
+  private ProfileData()
+  {
+    super();
+  }
+
+  /**
+   * Copies the results of a profiler.
+   *
+   * @param name
+   * @param type the kind of profile (e.g. "cpu"), only profiles of the same type can be compared
+   * @param hits the hits per frame id
+   * @param total the sum of all hits
+   * @param sampledNanos
+   * @param updateCount
+   * @param callTree
+   * @param frames
+   * @return
+   */
+  static ProfileData capture(String name, String type, long[] hits,
+      long total, long sampledNanos, long updateCount, CallTree callTree,
+      FrameDictionary frames)
+  {
+    ProfileData data = new ProfileData();
+    data.name_ = name;
+    data.type_ = type;
+    data.timestamp_ = System.currentTimeMillis();
+    data.total_ = total;
+    data.sampledNanos_ = sampledNanos;
+    data.updateCount_ = updateCount;
+    data.rootSelf_ = callTree.getSelf(CallTree.ROOT);
+
+    // frame ids are remapped to a dense range of the referenced frames
+    int[] frameMap = new int[frames.size()];
+    Arrays.fill(frameMap, -1);
+    FrameTable frameTable = new FrameTable(frames, frameMap);
+
+    int methods = 0;
+    int[] methodFrames = new int[Math.min(hits.length, frames.size())];
+    long[] methodHits = new long[methodFrames.length];
+    for (int frame = 0; frame < methodFrames.length; frame++)
+    {
+      if (hits[frame] > 0)
+      {
+        methodFrames[methods] = frameTable.map(frame);
+        methodHits[methods++] = hits[frame];
+      }
+    }
+    data.methodFrames_ = Arrays.copyOf(methodFrames, methods);
+    data.methodHits_ = Arrays.copyOf(methodHits, methods);
+
+    int nodes = 0;
+    int[] nodeParents = new int[callTree.getNodeCount()];
+    int[] nodeFrames = new int[nodeParents.length];
+    long[] nodeSelf = new long[nodeParents.length];
+    // depth-first traversal, tree node id and index of its written parent
+    int[] stack = new int[nodeParents.length * 2];
+    int stackSize = 0;
+    for (int child = callTree.getFirstChild(CallTree.ROOT); child != CallTree.NONE; child = callTree
+        .getNextSibling(child))
+    {
+      stack[stackSize++] = child;
+      stack[stackSize++] = -1;
+    }
+    while (stackSize > 0)
+    {
+      int parent = stack[--stackSize];
+      int node = stack[--stackSize];
+      nodeParents[nodes] = parent;
+      nodeFrames[nodes] = frameTable.map(callTree.getFrame(node));
+      nodeSelf[nodes] = callTree.getSelf(node);
+      for (int child = callTree.getFirstChild(node); child != CallTree.NONE; child = callTree
+          .getNextSibling(child))
+      {
+        stack[stackSize++] = child;
+        stack[stackSize++] = nodes;
+      }
+      nodes++;
+    }
+    data.nodeParents_ = Arrays.copyOf(nodeParents, nodes);
+    data.nodeFrames_ = Arrays.copyOf(nodeFrames, nodes);
+    data.nodeSelf_ = Arrays.copyOf(nodeSelf, nodes);
+
+    data.classNames_ = Arrays.copyOf(frameTable.classNames_, frameTable.size_);
+    data.methodNames_ = Arrays.copyOf(frameTable.methodNames_,
+        frameTable.size_);
+    return data;
+  }
+
+  /**
+   * Collects the referenced frames of a FrameDictionary.
+   */
+  private static final class FrameTable
+  {
+    private FrameDictionary frames_;
+
+    private int[]           frameMap_;
+
+    private String[]        classNames_;
+
+    private String[]        methodNames_;
+
+    private int             size_ = 0;
+
+    FrameTable(FrameDictionary frames, int[] frameMap)
+    {
+      frames_ = frames;
+      frameMap_ = frameMap;
+      classNames_ = new String[frames.size()];
+      methodNames_ = new String[frames.size()];
+    }
+
+    int map(int frame)
+    {
+      if (frameMap_[frame] < 0)
+      {
+        frameMap_[frame] = size_;
+        classNames_[size_] = frames_.getClassName(frame);
+        methodNames_[size_] = frames_.getMethodName(frame);
+        size_++;
+      }
+      return frameMap_[frame];
+    }
+  }
+
+  public void write(File file) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new GZIPOutputStream(new FileOutputStream(file))));
+    try
+    {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(name_);
+      out.writeUTF(type_);
+      out.writeLong(timestamp_);
+      out.writeLong(total_);
+      out.writeLong(sampledNanos_);
+      out.writeLong(updateCount_);
+      out.writeLong(rootSelf_);
+      out.writeInt(classNames_.length);
+      for (int i = 0; i < classNames_.length; i++)
+      {
+        out.writeUTF(classNames_[i]);
+        out.writeUTF(methodNames_[i]);
+      }
+      out.writeInt(methodFrames_.length);
+      for (int i = 0; i < methodFrames_.length; i++)
+      {
+        out.writeInt(methodFrames_[i]);
+        out.writeLong(methodHits_[i]);
+      }
+      out.writeInt(nodeFrames_.length);
+      for (int i = 0; i < nodeFrames_.length; i++)
+      {
+        out.writeInt(nodeParents_[i]);
+        out.writeInt(nodeFrames_[i]);
+        out.writeLong(nodeSelf_[i]);
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  public static ProfileData read(File file) throws IOException
+  {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new GZIPInputStream(new FileInputStream(file))));
+    try
+    {
+      if (in.readInt() != MAGIC)
+      {
+        throw new IOException(file + " is not a jvmtop profile");
+      }
+      int version = in.readInt();
+      if (version != VERSION)
+      {
+        throw new IOException(file + " has an unsupported version: " + version);
+      }
+      ProfileData data = new ProfileData();
+      data.name_ = in.readUTF();
+      data.type_ = in.readUTF();
+      data.timestamp_ = in.readLong();
+      data.total_ = in.readLong();
+      data.sampledNanos_ = in.readLong();
+      data.updateCount_ = in.readLong();
+      data.rootSelf_ = in.readLong();
+      int frames = in.readInt();
+      data.classNames_ = new String[frames];
+      data.methodNames_ = new String[frames];
+      for (int i = 0; i < frames; i++)
+      {
+        data.classNames_[i] = in.readUTF();
+        data.methodNames_[i] = in.readUTF();
+      }
+      int methods = in.readInt();
+      data.methodFrames_ = new int[methods];
+      data.methodHits_ = new long[methods];
+      for (int i = 0; i < methods; i++)
+      {
+        data.methodFrames_[i] = readFrame(in, frames);
+        data.methodHits_[i] = in.readLong();
+      }
+      int nodes = in.readInt();
+      data.nodeParents_ = new int[nodes];
+      data.nodeFrames_ = new int[nodes];
+      data.nodeSelf_ = new long[nodes];
+      for (int i = 0; i < nodes; i++)
+      {
+        int parent = in.readInt();
+        if (parent < -1 || parent >= i)
+        {
+          throw new IOException(file + " is corrupt: invalid node " + parent);
+        }
+        data.nodeParents_[i] = parent;
+        data.nodeFrames_[i] = readFrame(in, frames);
+        data.nodeSelf_[i] = in.readLong();
+      }
+      return data;
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  private static int readFrame(DataInputStream in, int frames)
+      throws IOException
+  {
+    int frame = in.readInt();
+    if (frame < 0 || frame >= frames)
+    {
+      throw new IOException("Corrupt profile: invalid frame " + frame);
+    }
+    return frame;
+  }
+
+  public String getName()
+  {
+    return name_;
+  }
+
+  /**
+   * @return the kind of profile (e.g. "cpu")
+   */
+  public String getType()
+  {
+    return type_;
+  }
+
+  /**
+   * @return the time the profile has been captured, in milliseconds since the epoch
+   */
+  public long getTimestamp()
+  {
+    return timestamp_;
+  }
+
+  public long getTotal()
+  {
+    return total_;
+  }
+
+  /**
+   * @return the measured wall-clock time (in seconds) covered by the samples
+   */
+  public double getSampledSeconds()
+  {
+    return sampledNanos_ / 1000000000d;
+  }
+
+  public long getUpdateCount()
+  {
+    return updateCount_;
+  }
+
+  /**
+   * @return the self value of the call tree root, i.e. of samples which have been pruned
+   */
+  public long getRootSelf()
+  {
+    return rootSelf_;
+  }
+
+  public int getFrameCount()
+  {
+    return classNames_.length;
+  }
+
+  public String getClassName(int frame)
+  {
+    return classNames_[frame];
+  }
+
+  public String getMethodName(int frame)
+  {
+    return methodNames_[frame];
+  }
+
+  public int getMethodCount()
+  {
+    return methodFrames_.length;
+  }
+
+  public int getMethodFrame(int method)
+  {
+    return methodFrames_[method];
+  }
+
+  public long getMethodHits(int method)
+  {
+    return methodHits_[method];
+  }
+
+  /**
+   * @return the number of call tree nodes (excluding the root)
+   */
+  public int getNodeCount()
+  {
+    return nodeFrames_.length;
+  }
+
+  /**
+   * @param node
+   * @return the index of the parent node, which precedes the given node, or -1 for the children of the root
+   */
+  public int getNodeParent(int node)
+  {
+    return nodeParents_[node];
+  }
+
+  public int getNodeFrame(int node)
+  {
+    return nodeFrames_[node];
+  }
+
+  public long getNodeSelf(int node)
+  {
+    return nodeSelf_[node];
+  }
+}
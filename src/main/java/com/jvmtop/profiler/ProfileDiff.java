@@ -0,0 +1,286 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.jvmtop.util.TopK;
+
+/**
+ * Compares two profiles of the same type, e.g. captured before and after a deployment.
+ *
+ * Methods are compared by their share of the total hits, as the profiles
+ * usually cover different durations and loads.
+ * Frames are matched by class and method name, using a FrameDictionary shared by both profiles.
+ *
+ * @author paru
+ *
+ */
+public class ProfileDiff
+{
+  private static final String PRUNED_FRAME = "[pruned]";
+
+  private ProfileData         base_;
+
+  private ProfileData         target_;
+
+  private FrameDictionary     frames_      = new FrameDictionary();
+
+  /**
+   * maps the frames of each profile to the shared frame ids
+   */
+  private int[]               baseFrames_;
+
+  private int[]               targetFrames_;
+
+  public ProfileDiff(ProfileData base, ProfileData target)
+  {
+    super();
+    if (!base.getType().equals(target.getType()))
+    {
+      throw new IllegalArgumentException("Cannot compare a " + base.getType()
+          + " profile with a " + target.getType() + " profile");
+    }
+    base_ = base;
+    target_ = target;
+    baseFrames_ = internFrames(base);
+    targetFrames_ = internFrames(target);
+  }
+
+  private int[] internFrames(ProfileData profile)
+  {
+    int[] frames = new int[profile.getFrameCount()];
+    for (int frame = 0; frame < frames.length; frame++)
+    {
+      frames[frame] = frames_.intern(profile.getClassName(frame),
+          profile.getMethodName(frame));
+    }
+    return frames;
+  }
+
+  /**
+   * Returns the methods whose share changed the most.
+   *
+   * @param limit
+   * @return the methods, ordered by the absolute change of their share (descending)
+   */
+  public List<MethodDiff> getTop(int limit)
+  {
+    long[] baseHits = getMethodHits(base_, baseFrames_);
+    long[] targetHits = getMethodHits(target_, targetFrames_);
+    TopK<MethodDiff> top = new TopK<MethodDiff>(limit,
+        MethodDiff.DELTA_COMPARATOR);
+    for (int frame = 0; frame < frames_.size(); frame++)
+    {
+      if (baseHits[frame] > 0 || targetHits[frame] > 0)
+      {
+        top.offer(new MethodDiff(frames_.getClassName(frame), frames_
+            .getMethodName(frame), share(baseHits[frame], base_.getTotal()),
+            share(targetHits[frame], target_.getTotal())));
+      }
+    }
+    return top.toList();
+  }
+
+  private long[] getMethodHits(ProfileData profile, int[] frames)
+  {
+    long[] hits = new long[frames_.size()];
+    for (int method = 0; method < profile.getMethodCount(); method++)
+    {
+      hits[frames[profile.getMethodFrame(method)]] += profile
+          .getMethodHits(method);
+    }
+    return hits;
+  }
+
+  private static double share(long hits, long total)
+  {
+    return total > 0 ? (double) hits / total * 100 : 0;
+  }
+
+  public ProfileData getBase()
+  {
+    return base_;
+  }
+
+  public ProfileData getTarget()
+  {
+    return target_;
+  }
+
+  /**
+   * Writes the stacks of both profiles in the differential collapsed stack format
+   * ("frame;frame;frame baseCount targetCount" per line), as consumed by flame graph tools.
+   *
+   * Counts are microseconds for time based profiles (like the ones written by FoldedStackWriter)
+   * and bytes for allocation profiles.
+   * The base counts are scaled to the total of the target, so that the differences
+   * reflect changes of the shares instead of the different durations of the profiles.
+   *
+   * @param file
+   * @throws IOException
+   */
+  public void writeFolded(File file) throws IOException
+  {
+    // both call trees are merged, so that each stack is written once
+    MergedTree tree = new MergedTree();
+    tree.add(base_, baseFrames_, 0);
+    tree.add(target_, targetFrames_, 1);
+    long baseTotal = base_.getRootSelf() + sum(tree.self_, 0, tree.size_);
+    long targetTotal = target_.getRootSelf() + sum(tree.self_, 1, tree.size_);
+    double scale = baseTotal > 0 ? (double) targetTotal / baseTotal : 0;
+    long unit = AllocationSampler.PROFILE_TYPE.equals(target_.getType()) ? 1 : 1000;
+
+    Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file), "UTF-8"));
+    try
+    {
+      if (base_.getRootSelf() > 0 || target_.getRootSelf() > 0)
+      {
+        writeLine(writer, PRUNED_FRAME,
+            (long) (base_.getRootSelf() * scale), target_.getRootSelf(), unit);
+      }
+      StringBuilder stack = new StringBuilder();
+      int[] path = new int[64];
+      for (int node = 0; node < tree.size_; node++)
+      {
+        if (tree.self_[node * 2] == 0 && tree.self_[node * 2 + 1] == 0)
+        {
+          continue;
+        }
+        int depth = 0;
+        for (int n = node; n >= 0; n = tree.parents_[n])
+        {
+          if (depth == path.length)
+          {
+            path = Arrays.copyOf(path, depth * 2);
+          }
+          path[depth++] = tree.frames_[n];
+        }
+        stack.setLength(0);
+        for (int i = depth - 1; i >= 0; i--)
+        {
+          stack.append(frames_.getFrameName(path[i]));
+          if (i > 0)
+          {
+            stack.append(';');
+          }
+        }
+        writeLine(writer, stack, (long) (tree.self_[node * 2] * scale),
+            tree.self_[node * 2 + 1], unit);
+      }
+    }
+    finally
+    {
+      writer.close();
+    }
+  }
+
+  /**
+   * Sums up the self values of one profile of a merged tree.
+   */
+  private static long sum(long[] self, int index, int nodes)
+  {
+    long sum = 0;
+    for (int node = 0; node < nodes; node++)
+    {
+      sum += self[node * 2 + index];
+    }
+    return sum;
+  }
+
+  private static void writeLine(Writer writer, CharSequence stack,
+      long baseSelf, long targetSelf, long unit) throws IOException
+  {
+    writer.append(stack);
+    writer.write(' ');
+    writer.write(Long.toString(baseSelf / unit));
+    writer.write(' ');
+    writer.write(Long.toString(targetSelf / unit));
+    writer.write('\n');
+  }
+
+  /**
+   * A call tree containing the nodes of both profiles, with a self value per profile.
+   */
+  private static final class MergedTree
+  {
+    /**
+     * merged node id by parent node id (upper 32 bits) and shared frame id (lower 32 bits)
+     */
+    private Map<Long, Integer> nodes_   = new HashMap<Long, Integer>();
+
+    private int[]              parents_ = new int[1024];
+
+    private int[]              frames_  = new int[1024];
+
+    /**
+     * the self value of each profile (two entries per node)
+     */
+    private long[]             self_    = new long[2048];
+
+    private int                size_    = 0;
+
+    void add(ProfileData profile, int[] frames, int index)
+    {
+      // profile nodes precede their children, so parents are always mapped first
+      int[] mergedNodes = new int[profile.getNodeCount()];
+      for (int node = 0; node < profile.getNodeCount(); node++)
+      {
+        int parent = profile.getNodeParent(node);
+        int mergedParent = parent >= 0 ? mergedNodes[parent] : -1;
+        int merged = getOrCreate(mergedParent,
+            frames[profile.getNodeFrame(node)]);
+        self_[merged * 2 + index] += profile.getNodeSelf(node);
+        mergedNodes[node] = merged;
+      }
+    }
+
+    private int getOrCreate(int parent, int frame)
+    {
+      Long key = Long.valueOf(((long) parent << 32) | (frame & 0xFFFFFFFFL));
+      Integer node = nodes_.get(key);
+      if (node != null)
+      {
+        return node;
+      }
+      if (size_ == parents_.length)
+      {
+        parents_ = Arrays.copyOf(parents_, size_ * 2);
+        frames_ = Arrays.copyOf(frames_, size_ * 2);
+        self_ = Arrays.copyOf(self_, size_ * 4);
+      }
+      parents_[size_] = parent;
+      frames_[size_] = frame;
+      nodes_.put(key, size_);
+      return size_++;
+    }
+  }
+}
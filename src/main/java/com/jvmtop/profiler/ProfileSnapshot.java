@@ -0,0 +1,261 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consistent view of the profiling results of a CPUSampler at a given point in time.
+ *
+ * Snapshots are created and completed (see the package-private setters) by the sampling thread.
+ * They are not modified after they have been published (through a volatile field of the CPUSampler),
+ * so they can be read by the rendering thread without any locking.
+ *
+ * @author paru
+ *
+ */
+public class ProfileSnapshot
+{
+  private final List<MethodStats>           methods_;
+
+  private final long                        total_;
+
+  private final String                      error_;
+
+  private long                              recentTotal_          = -1;
+
+  private long                              updateCount_          = 0;
+
+  private long                              sampledNanos_         = 0;
+
+  private long                              lastSampleTime_       = 0;
+
+  private int                               lastRoundTrips_       = 0;
+
+  private boolean                           bulkCpuTimeSupported_ = false;
+
+  private String                            exportError_          = null;
+
+  private List<ThreadPoolStats>             threadPools_          = null;
+
+  private Map<MethodStats, List<LineStats>> lines_                = null;
+
+  private OverheadStats                     overhead_             = null;
+
+  /**
+   * @param methods the methods with the most hits, ordered by their (recent) hits (descending)
+   * @param total the sum of all hits (including the ones of the methods not passed)
+   * @param error the error message of the most recent sample, or null
+   */
+  public ProfileSnapshot(List<MethodStats> methods, long total, String error)
+  {
+    super();
+    methods_ = Collections.unmodifiableList(methods);
+    total_ = total;
+    error_ = error;
+  }
+
+  /**
+   * @param recentTotal the sum of all hits of the recent past
+   */
+  void setRecentTotal(long recentTotal)
+  {
+    recentTotal_ = recentTotal;
+  }
+
+  /**
+   * @param updateCount the number of samples which acquired hits
+   */
+  void setUpdateCount(long updateCount)
+  {
+    updateCount_ = updateCount;
+  }
+
+  /**
+   * @param sampledNanos the measured wall-clock time covered by the samples
+   */
+  void setSampledNanos(long sampledNanos)
+  {
+    sampledNanos_ = sampledNanos;
+  }
+
+  /**
+   * @param lastSampleTime the System.nanoTime() of the most recent sample
+   */
+  void setLastSampleTime(long lastSampleTime)
+  {
+    lastSampleTime_ = lastSampleTime;
+  }
+
+  /**
+   * @param lastRoundTrips the number of remote calls of the most recent sample
+   * @param bulkCpuTimeSupported whether these include a single call for the metrics of all threads
+   */
+  void setRoundTrips(int lastRoundTrips, boolean bulkCpuTimeSupported)
+  {
+    lastRoundTrips_ = lastRoundTrips;
+    bulkCpuTimeSupported_ = bulkCpuTimeSupported;
+  }
+
+  /**
+   * @param exportError the error message of the most recent export, or null
+   */
+  void setExportError(String exportError)
+  {
+    exportError_ = exportError;
+  }
+
+  /**
+   * @param threadPools the hits per thread pool, ordered by their hits (descending)
+   */
+  void setThreadPools(List<ThreadPoolStats> threadPools)
+  {
+    threadPools_ = Collections.unmodifiableList(threadPools);
+  }
+
+  /**
+   * @param lines the lines with the most hits per method
+   */
+  void setLines(Map<MethodStats, List<LineStats>> lines)
+  {
+    lines_ = lines;
+  }
+
+  /**
+   * @param overhead the costs of sampling
+   */
+  void setOverhead(OverheadStats overhead)
+  {
+    overhead_ = overhead;
+  }
+
+  public List<MethodStats> getTop(int limit)
+  {
+    return methods_.subList(0, Math.min(limit, methods_.size()));
+  }
+
+  /**
+   * @param limit
+   * @return the thread pools with the most hits, or null if the hits are not recorded per thread pool
+   */
+  public List<ThreadPoolStats> getTopThreadPools(int limit)
+  {
+    if (threadPools_ == null)
+    {
+      return null;
+    }
+    return threadPools_.subList(0, Math.min(limit, threadPools_.size()));
+  }
+
+  /**
+   * @param method one of the methods of this snapshot
+   * @return the lines of the method with the most hits, ordered by their hits (descending),
+   *         or null if lines are not recorded
+   */
+  public List<LineStats> getLines(MethodStats method)
+  {
+    if (lines_ == null)
+    {
+      return null;
+    }
+    List<LineStats> lines = lines_.get(method);
+    return lines != null ? lines : Collections.<LineStats> emptyList();
+  }
+
+  public OverheadStats getOverhead()
+  {
+    return overhead_;
+  }
+
+  public long getTotal()
+  {
+    return total_;
+  }
+
+  /**
+   * @return the sum of all hits of the recent past, -1 if not recorded
+   */
+  public long getRecentTotal()
+  {
+    return recentTotal_;
+  }
+
+  public long getUpdateCount()
+  {
+    return updateCount_;
+  }
+
+  /**
+   * @return the measured wall-clock time (in seconds) covered by the samples
+   */
+  public double getSampledSeconds()
+  {
+    return sampledNanos_ / 1000000000d;
+  }
+
+  public long getLastSampleTime()
+  {
+    return lastSampleTime_;
+  }
+
+  public int getLastRoundTrips()
+  {
+    return lastRoundTrips_;
+  }
+
+  public boolean isBulkCpuTimeSupported()
+  {
+    return bulkCpuTimeSupported_;
+  }
+
+  /**
+   * @return the error message of the most recent sample, null if it succeeded
+   */
+  public String getError()
+  {
+    return error_;
+  }
+
+  /**
+   * @return the error message of the most recent export (e.g. of folded stacks), null if it succeeded
+   */
+  public String getExportError()
+  {
+    return exportError_;
+  }
+
+  /**
+   * Returns the half width of the 95% confidence interval of a share (in percent)
+   * estimated from the samples, for the worst case of a 50% share.
+   *
+   * @return the statistical error in percent, or NaN if no samples have been acquired
+   */
+  public double getStatisticalError()
+  {
+    if (updateCount_ == 0)
+    {
+      return Double.NaN;
+    }
+    return 1.96 * Math.sqrt(0.25 / updateCount_) * 100;
+  }
+}
@@ -0,0 +1,210 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the recent hits per frame id, so the profile reflects
+ * what the jvm is doing now instead of its complete history.
+ *
+ * Hits are collected in a ring of buckets, each covering a fixed interval.
+ * In the sliding window mode, the recent hits are the sum of all buckets
+ * (i.e. the hits of the last window).
+ * In the decayed mode, the hits of each completed bucket are added to an exponentially
+ * decayed sum, so older hits lose half of their weight after each half-life.
+ *
+ * @author paru
+ *
+ */
+public class RecentHits
+{
+  private static final int BUCKETS        = 10;
+
+  private final boolean    decayed_;
+
+  private final long       durationNanos_;
+
+  private final long       bucketNanos_;
+
+  /**
+   * weight of the decayed hits after one bucket interval
+   */
+  private final double     decayFactor_;
+
+  private long[][]         buckets_       = new long[BUCKETS][1024];
+
+  private long[]           bucketTotals_  = new long[BUCKETS];
+
+  private int              currentBucket_ = 0;
+
+  private long             bucketEnd_     = -1;
+
+  private double[]         decayedHits_   = new double[0];
+
+  private double           decayedTotal_  = 0;
+
+  /**
+   * @param durationNanos the length of the sliding window, or the half-life in the decayed mode
+   * @param decayed true for the exponentially decayed mode, false for the sliding window mode
+   */
+  public RecentHits(long durationNanos, boolean decayed)
+  {
+    super();
+    if (durationNanos < BUCKETS)
+    {
+      throw new IllegalArgumentException("Duration too short");
+    }
+    durationNanos_ = durationNanos;
+    decayed_ = decayed;
+    bucketNanos_ = durationNanos / BUCKETS;
+    decayFactor_ = Math.pow(0.5, 1d / BUCKETS);
+    if (decayed)
+    {
+      decayedHits_ = new double[1024];
+    }
+  }
+
+  /**
+   * Advances the current bucket to the given time, dropping (or decaying) the hits which are too old.
+   *
+   * @param sampleTime
+   */
+  public void advance(long sampleTime)
+  {
+    if (bucketEnd_ < 0)
+    {
+      bucketEnd_ = sampleTime + bucketNanos_;
+      return;
+    }
+    int rotations = 0;
+    while (sampleTime >= bucketEnd_ && rotations <= BUCKETS)
+    {
+      closeBucket();
+      bucketEnd_ += bucketNanos_;
+      rotations++;
+    }
+    if (sampleTime >= bucketEnd_)
+    {
+      // all buckets expired (e.g. the sampling thread was suspended)
+      long missed = (sampleTime - bucketEnd_) / bucketNanos_ + 1;
+      if (decayed_)
+      {
+        double factor = Math.pow(decayFactor_, missed);
+        for (int frame = 0; frame < decayedHits_.length; frame++)
+        {
+          decayedHits_[frame] *= factor;
+        }
+        decayedTotal_ *= factor;
+      }
+      bucketEnd_ += missed * bucketNanos_;
+    }
+  }
+
+  private void closeBucket()
+  {
+    if (decayed_)
+    {
+      long[] bucket = buckets_[currentBucket_];
+      for (int frame = 0; frame < decayedHits_.length; frame++)
+      {
+        decayedHits_[frame] = decayedHits_[frame] * decayFactor_
+            + (frame < bucket.length ? bucket[frame] : 0);
+      }
+      decayedTotal_ = decayedTotal_ * decayFactor_
+          + bucketTotals_[currentBucket_];
+    }
+    currentBucket_ = (currentBucket_ + 1) % BUCKETS;
+    Arrays.fill(buckets_[currentBucket_], 0);
+    bucketTotals_[currentBucket_] = 0;
+  }
+
+  public void add(int frame, long hits)
+  {
+    long[] bucket = buckets_[currentBucket_];
+    if (frame >= bucket.length)
+    {
+      bucket = Arrays.copyOf(bucket, Math.max(frame + 1, bucket.length * 2));
+      buckets_[currentBucket_] = bucket;
+    }
+    bucket[frame] += hits;
+    bucketTotals_[currentBucket_] += hits;
+    if (decayed_ && frame >= decayedHits_.length)
+    {
+      decayedHits_ = Arrays.copyOf(decayedHits_,
+          Math.max(frame + 1, decayedHits_.length * 2));
+    }
+  }
+
+  /**
+   * @param frame
+   * @return the recent hits of the given frame
+   */
+  public long get(int frame)
+  {
+    if (decayed_)
+    {
+      long[] bucket = buckets_[currentBucket_];
+      double decayedHits = frame < decayedHits_.length ? decayedHits_[frame]
+          : 0;
+      return (long) decayedHits + (frame < bucket.length ? bucket[frame] : 0);
+    }
+    long hits = 0;
+    for (long[] bucket : buckets_)
+    {
+      if (frame < bucket.length)
+      {
+        hits += bucket[frame];
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return the recent hits of all frames
+   */
+  public long getTotal()
+  {
+    if (decayed_)
+    {
+      return (long) (decayedTotal_ + bucketTotals_[currentBucket_]);
+    }
+    long total = 0;
+    for (long bucketTotal : bucketTotals_)
+    {
+      total += bucketTotal;
+    }
+    return total;
+  }
+
+  public boolean isDecayed()
+  {
+    return decayed_;
+  }
+
+  /**
+   * @return the length of the sliding window, or the half-life in the decayed mode (in seconds)
+   */
+  public double getDurationSeconds()
+  {
+    return durationNanos_ / 1000000000d;
+  }
+}
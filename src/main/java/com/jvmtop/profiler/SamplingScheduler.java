@@ -0,0 +1,286 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives one or more samplers at a fixed rate on a dedicated (daemon) thread,
+ * independent of the screen refresh.
+ *
+ * Sample deadlines are computed on a fixed grid (start time + n * interval),
+ * so the duration of a sample does not cause the sample rate to drift.
+ * If a sample takes longer than the interval, the missed deadlines are skipped
+ * instead of being executed in a burst.
+ *
+ * Optionally, an overhead budget can be set: the scheduler then measures how long
+ * each sample takes (which is dominated by the thread dump on the monitored jvm)
+ * and adapts the interval so that sampling stays within the given fraction of time,
+ * but never samples faster than the configured interval.
+ *
+ * @author paru
+ *
+ */
+public class SamplingScheduler implements Runnable
+{
+  public static final long         DEFAULT_INTERVAL_MILLIS = 100;
+
+  /**
+   * upper bound of the interval if an overhead budget is used
+   */
+  public static final long         MAX_INTERVAL_MILLIS     = 10000;
+
+  /**
+   * weight of the most recent sample duration in its moving average
+   */
+  private static final double      COST_SMOOTHING          = 0.2;
+
+  private List<Sampler>            samplers_               = new CopyOnWriteArrayList<Sampler>();
+
+  private ScheduledExecutorService executor_               = null;
+
+  private volatile long            intervalNanos_          = TimeUnit.MILLISECONDS
+                                                               .toNanos(DEFAULT_INTERVAL_MILLIS);
+
+  private long                     nextDeadline_;
+
+  private volatile long            skippedSamples_         = 0;
+
+  private volatile long            minIntervalNanos_       = intervalNanos_;
+
+  private volatile double          overheadBudget_         = 0;
+
+  private volatile double          sampleCostNanos_        = 0;
+
+  public SamplingScheduler()
+  {
+    super();
+  }
+
+  public SamplingScheduler(Sampler sampler)
+  {
+    this();
+    addSampler(sampler);
+  }
+
+  public void addSampler(Sampler sampler)
+  {
+    samplers_.add(sampler);
+  }
+
+  /**
+   * Starts the sampling thread, has no effect if it is already running.
+   */
+  public synchronized void start()
+  {
+    if (executor_ != null)
+    {
+      return;
+    }
+    executor_ = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+    {
+      @Override
+      public Thread newThread(Runnable r)
+      {
+        Thread thread = new Thread(r, "jvmtop sampler");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    nextDeadline_ = System.nanoTime();
+    executor_.execute(this);
+  }
+
+  /**
+   * Stops the sampling thread and waits (up to the given time) until a running sample has been completed.
+   *
+   * @param timeoutMillis
+   * @return true if the sampling thread has terminated
+   * @throws InterruptedException
+   */
+  public boolean stop(long timeoutMillis) throws InterruptedException
+  {
+    ScheduledExecutorService executor;
+    synchronized (this)
+    {
+      executor = executor_;
+      stop();
+    }
+    // the lock must not be held, the sampling thread acquires it to schedule the next sample
+    return executor == null
+        || executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+
+  public synchronized void stop()
+  {
+    if (executor_ != null)
+    {
+      executor_.shutdownNow();
+      executor_ = null;
+    }
+  }
+
+  @Override
+  public void run()
+  {
+    long sampleTime = System.nanoTime();
+    long maxCost = 0;
+    for (Sampler sampler : samplers_)
+    {
+      long start = System.nanoTime();
+      try
+      {
+        sampler.update(sampleTime);
+      }
+      catch (Throwable e)
+      {
+        // errors (e.g. an OutOfMemoryError) must not skip scheduleNext(), which would end the sampling silently
+        Logger.getLogger("jvmtop").log(Level.FINE, "error during sampling", e);
+      }
+      maxCost = Math.max(maxCost, System.nanoTime() - start);
+    }
+    adaptInterval(maxCost);
+    scheduleNext();
+  }
+
+  /**
+   * Adapts the interval to the overhead budget, based on the moving average of the sample duration.
+   * Each monitored jvm only faces its own sample, so the most expensive sampler is relevant.
+   */
+  private void adaptInterval(long cost)
+  {
+    if (sampleCostNanos_ == 0)
+    {
+      sampleCostNanos_ = cost;
+    }
+    else
+    {
+      sampleCostNanos_ = sampleCostNanos_ * (1 - COST_SMOOTHING) + cost
+          * COST_SMOOTHING;
+    }
+    if (overheadBudget_ <= 0)
+    {
+      return;
+    }
+    long interval = (long) (sampleCostNanos_ / overheadBudget_);
+    intervalNanos_ = Math.min(
+        Math.max(interval, minIntervalNanos_),
+        Math.max(minIntervalNanos_,
+            TimeUnit.MILLISECONDS.toNanos(MAX_INTERVAL_MILLIS)));
+  }
+
+  private synchronized void scheduleNext()
+  {
+    if (executor_ == null)
+    {
+      return;
+    }
+    long now = System.nanoTime();
+    nextDeadline_ += intervalNanos_;
+    if (nextDeadline_ < now)
+    {
+      long missed = (now - nextDeadline_) / intervalNanos_ + 1;
+      skippedSamples_ += missed;
+      nextDeadline_ += missed * intervalNanos_;
+    }
+    executor_.schedule(this, nextDeadline_ - now, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the current (effective) interval between two samples
+   */
+  public long getIntervalMillis()
+  {
+    return TimeUnit.NANOSECONDS.toMillis(intervalNanos_);
+  }
+
+  /**
+   * Sets the interval between two samples.
+   * If an overhead budget is set, this is the minimum interval.
+   *
+   * @param intervalMillis
+   */
+  public void setIntervalMillis(long intervalMillis)
+  {
+    if (intervalMillis <= 0)
+    {
+      throw new IllegalArgumentException("Sampling interval must be positive");
+    }
+    minIntervalNanos_ = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    intervalNanos_ = minIntervalNanos_;
+  }
+
+  /**
+   * @return the effective sample rate in samples per second
+   */
+  public double getSampleRate()
+  {
+    return 1000000000d / intervalNanos_;
+  }
+
+  /**
+   * @return the moving average of the sample duration in milliseconds
+   */
+  public double getSampleCostMillis()
+  {
+    return sampleCostNanos_ / 1000000d;
+  }
+
+  public double getOverheadBudget()
+  {
+    return overheadBudget_;
+  }
+
+  /**
+   * Sets the fraction of time (e.g. 0.01 for 1%) sampling may take,
+   * 0 disables the adaptive interval.
+   *
+   * @param overheadBudget
+   */
+  public void setOverheadBudget(double overheadBudget)
+  {
+    if (overheadBudget < 0 || overheadBudget > 1)
+    {
+      throw new IllegalArgumentException(
+          "Overhead budget must be between 0% and 100%");
+    }
+    overheadBudget_ = overheadBudget;
+    if (overheadBudget == 0)
+    {
+      intervalNanos_ = minIntervalNanos_;
+    }
+  }
+
+  /**
+   * @return the number of sample deadlines which were skipped as a previous sample took too long
+   */
+  public long getSkippedSamples()
+  {
+    return skippedSamples_;
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+import com.jvmtop.openjdk.tools.ProxyClient;
+
+/**
+ * Retrieves a per-thread metric (like cpu time or allocated bytes)
+ * of many threads of a remote jvm at once.
+ *
+ * If the monitored jvm provides the bulk operation of the metric
+ * (e.g. com.sun.management.ThreadMXBean.getThreadCpuTime(long[])),
+ * all values are fetched using a single remote call.
+ * Otherwise, it falls back to one call per thread.
+ *
+ * @author paru
+ *
+ */
+public class ThreadMetricCollector
+{
+  /**
+   * ThreadMXBean operation returning the cpu time of threads (in nanoseconds)
+   */
+  public static final String    CPU_TIME          = "getThreadCpuTime";
+
+  /**
+   * ThreadMXBean operation returning the number of bytes allocated by threads
+   */
+  public static final String    ALLOCATED_BYTES   = "getThreadAllocatedBytes";
+
+  private static final String[] BULK_SIGNATURE    = new String[] { long[].class
+                                                      .getName() };
+
+  private static final String[] SINGLE_SIGNATURE  = new String[] { long.class
+                                                      .getName() };
+
+  private ProxyClient           proxyClient_;
+
+  private String                operationName_;
+
+  private ObjectName            threadMxBeanName_;
+
+  private boolean               bulkSupported_    = true;
+
+  private int                   lastRoundTrips_   = 0;
+
+  /**
+   * @param proxyClient
+   * @param operationName the ThreadMXBean operation, e.g. CPU_TIME
+   * @throws Exception
+   */
+  public ThreadMetricCollector(ProxyClient proxyClient, String operationName)
+      throws Exception
+  {
+    super();
+    proxyClient_ = proxyClient;
+    operationName_ = operationName;
+    threadMxBeanName_ = new ObjectName(ManagementFactory.THREAD_MXBEAN_NAME);
+  }
+
+  /**
+   * Checks if the monitored jvm supports the metric and has enabled its measurement.
+   *
+   * @return null if the metric is available, otherwise a message describing why it is not
+   * @throws Exception
+   */
+  public String checkSupported() throws Exception
+  {
+    String attribute;
+    String name;
+    if (CPU_TIME.equals(operationName_))
+    {
+      attribute = "ThreadCpuTime";
+      name = "Thread cpu time measurement";
+    }
+    else if (ALLOCATED_BYTES.equals(operationName_))
+    {
+      attribute = "ThreadAllocatedMemory";
+      name = "Thread allocated memory measurement";
+    }
+    else
+    {
+      return null;
+    }
+    MBeanServerConnection server = proxyClient_.getMBeanServerConnection();
+    try
+    {
+      if (!Boolean.TRUE.equals(server.getAttribute(threadMxBeanName_,
+          attribute + "Supported")))
+      {
+        return name + " is not supported by the monitored jvm";
+      }
+      if (!Boolean.TRUE.equals(server.getAttribute(threadMxBeanName_,
+          attribute + "Enabled")))
+      {
+        return name + " is disabled in the monitored jvm";
+      }
+    }
+    catch (AttributeNotFoundException e)
+    {
+      // e.g. a jvm without com.sun.management.ThreadMXBean
+      return name + " is not supported by the monitored jvm";
+    }
+    return null;
+  }
+
+  /**
+   * Returns the metric values of the given threads.
+   * The returned array is aligned to threadIds,
+   * -1 denotes a thread which is not alive anymore (or unsupported).
+   *
+   * @param threadIds
+   * @return
+   * @throws Exception
+   */
+  public long[] getValues(long[] threadIds) throws Exception
+  {
+    lastRoundTrips_ = 0;
+    if (threadIds.length == 0)
+    {
+      return new long[0];
+    }
+    if (bulkSupported_)
+    {
+      long[] values = getValuesBulk(threadIds);
+      if (values != null)
+      {
+        return values;
+      }
+    }
+    long[] values = new long[threadIds.length];
+    for (int i = 0; i < threadIds.length; i++)
+    {
+      Object result = proxyClient_.invoke(threadMxBeanName_, operationName_,
+          new Object[] { threadIds[i] }, SINGLE_SIGNATURE);
+      lastRoundTrips_++;
+      if (!(result instanceof Long))
+      {
+        throw new UnsupportedOperationException(operationName_
+            + " is not supported by the monitored jvm");
+      }
+      values[i] = ((Long) result).longValue();
+    }
+    return values;
+  }
+
+  /**
+   * Tries to fetch the values with one remote call,
+   * returns null if the monitored jvm does not support it.
+   */
+  private long[] getValuesBulk(long[] threadIds) throws Exception
+  {
+    lastRoundTrips_++;
+    try
+    {
+      Object result = proxyClient_.invoke(threadMxBeanName_, operationName_,
+          new Object[] { threadIds }, BULK_SIGNATURE);
+      if (result instanceof long[]
+          && ((long[]) result).length == threadIds.length)
+      {
+        return (long[]) result;
+      }
+    }
+    catch (RuntimeException e)
+    {
+      Logger.getLogger("jvmtop").log(Level.FINE,
+          "bulk retrieval of " + operationName_ + " failed", e);
+    }
+    Logger.getLogger("jvmtop").log(Level.FINE,
+        "bulk retrieval of " + operationName_ + " not supported, using fallback");
+    bulkSupported_ = false;
+    return null;
+  }
+
+  /**
+   * @return true if the monitored jvm supports bulk retrieval of the metric
+   */
+  public boolean isBulkSupported()
+  {
+    return bulkSupported_;
+  }
+
+  /**
+   * @return the number of remote calls the last getValues() invocation required
+   */
+  public int getLastRoundTrips()
+  {
+    return lastRoundTrips_;
+  }
+}
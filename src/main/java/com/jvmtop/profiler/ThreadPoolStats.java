@@ -0,0 +1,98 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents the sampled hits of a group of threads with a common name
+ * (typically a thread pool, e.g. "http-nio-8080-exec-*").
+ *
+ * @author paru
+ *
+ */
+public class ThreadPoolStats implements Comparable<ThreadPoolStats>
+{
+  private String            name_    = null;
+
+  private long              hits_    = 0;
+
+  private List<MethodStats> methods_ = null;
+
+  /**
+   * @param name
+   * @param hits the sum of the hits of all methods
+   * @param methods the methods of the pool, ordered by their hits (descending)
+   */
+  public ThreadPoolStats(String name, long hits, List<MethodStats> methods)
+  {
+    super();
+    name_ = name;
+    hits_ = hits;
+    methods_ = Collections.unmodifiableList(methods);
+  }
+
+  /**
+   * Returns the name of the thread pool of the given thread:
+   * the thread name with trailing digits replaced by '*'.
+   *
+   * @param threadName
+   * @return
+   */
+  public static String getThreadPoolName(String threadName)
+  {
+    int end = threadName.length();
+    while (end > 0 && Character.isDigit(threadName.charAt(end - 1)))
+    {
+      end--;
+    }
+    if (end == threadName.length())
+    {
+      return threadName;
+    }
+    return threadName.substring(0, end) + "*";
+  }
+
+  public String getName()
+  {
+    return name_;
+  }
+
+  public long getHits()
+  {
+    return hits_;
+  }
+
+  public List<MethodStats> getTop(int limit)
+  {
+    return methods_.subList(0, Math.min(limit, methods_.size()));
+  }
+
+  /**
+   * Compares the hits, descending.
+   */
+  @Override
+  public int compareTo(ThreadPoolStats o)
+  {
+    return Long.valueOf(o.hits_).compareTo(hits_);
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.profiler;
+
+import java.lang.Thread.State;
+import java.util.Arrays;
+
+import com.jvmtop.monitor.VMInfo;
+
+/**
+ * Sampling-based wall-clock profiler.
+ *
+ * Works like the CPUSampler, but credits the time between two samples
+ * to every sampled thread, regardless of its state and cpu usage.
+ * So it also reveals where threads are waiting (I/O, locks, pools, sleeps).
+ * The hits are additionally split by the state of the thread (see MethodStats.getHits(State)).
+ *
+ * Hits (and call tree values) are thread nanoseconds.
+ *
+ * @author paru
+ *
+ */
+public class WallClockSampler extends CPUSampler
+{
+  private static final int STATES     = State.values().length;
+
+  /**
+   * hits per frame id and thread state (frame * STATES + state)
+   */
+  private long[]           stateHits_ = new long[1024 * STATES];
+
+  public WallClockSampler(VMInfo vmInfo) throws Exception
+  {
+    super(vmInfo);
+  }
+
+  /**
+   * Uses the sample time as the value of all threads,
+   * so the time between two samples is credited.
+   */
+  @Override
+  protected long[] getThreadValues(long[] threadIds, long sampleTime)
+  {
+    long[] values = new long[threadIds.length];
+    Arrays.fill(values, sampleTime);
+    return values;
+  }
+
+  @Override
+  public String checkSupported() throws Exception
+  {
+    // the wall-clock time does not require any thread metric
+    return null;
+  }
+
+  @Override
+  protected String getProfileType()
+  {
+    return "wall";
+  }
+
+  @Override
+  protected boolean isSampled(State state)
+  {
+    return true;
+  }
+
+  @Override
+  protected boolean isIdle(int frame)
+  {
+    return false;
+  }
+
+  @Override
+  protected void credit(String threadName, State state,
+      StackTraceElement[] stackTrace, int frame, long deltaCpuTime)
+  {
+    super.credit(threadName, state, stackTrace, frame, deltaCpuTime);
+    int index = frame * STATES + state.ordinal();
+    if (index >= stateHits_.length)
+    {
+      stateHits_ = Arrays.copyOf(stateHits_,
+          Math.max(index + STATES, stateHits_.length * 2));
+    }
+    stateHits_[index] += deltaCpuTime;
+  }
+
+  @Override
+  protected MethodStats createMethodStats(int frame, long hits,
+      long recentHits)
+  {
+    MethodStats stats = super.createMethodStats(frame, hits, recentHits);
+    return new MethodStats(stats.getClassName(), stats.getMethodName(), hits,
+        recentHits, Arrays.copyOfRange(stateHits_, frame * STATES,
+            (frame + 1) * STATES));
+  }
+}
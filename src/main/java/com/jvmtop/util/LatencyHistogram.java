@@ -0,0 +1,119 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.util;
+
+/**
+ * Records latencies in a fixed number of log-linear buckets
+ * (8 buckets per power of two), so percentiles can be estimated
+ * with an error below 12.5% in constant memory, independent of the number of recorded values.
+ *
+ * This class is not thread-safe.
+ *
+ * @author paru
+ *
+ */
+public class LatencyHistogram
+{
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+
+  private long[]           counts_         = new long[(64 - SUB_BUCKET_BITS + 1)
+                                               * SUB_BUCKETS];
+
+  private long             count_          = 0;
+
+  private long             max_            = 0;
+
+  /**
+   * @param micros the latency in microseconds
+   */
+  public void record(long micros)
+  {
+    if (micros < 0)
+    {
+      micros = 0;
+    }
+    counts_[getBucket(micros)]++;
+    count_++;
+    max_ = Math.max(max_, micros);
+  }
+
+  private static int getBucket(long value)
+  {
+    if (value < SUB_BUCKETS)
+    {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS))
+        & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /**
+   * @return the largest value of the given bucket
+   */
+  private static long getUpperBound(int bucket)
+  {
+    if (bucket < SUB_BUCKETS)
+    {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long lowerBound = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * Returns an upper bound of the given percentile of the recorded latencies.
+   *
+   * @param percentile e.g. 99 for the 99th percentile
+   * @return the latency in microseconds, 0 if no latency has been recorded
+   */
+  public long getPercentile(double percentile)
+  {
+    long rank = (long) Math.ceil(percentile / 100 * count_);
+    long seen = 0;
+    for (int bucket = 0; bucket < counts_.length; bucket++)
+    {
+      seen += counts_[bucket];
+      if (seen >= rank && seen > 0)
+      {
+        return Math.min(getUpperBound(bucket), max_);
+      }
+    }
+    return max_;
+  }
+
+  /**
+   * @return the largest recorded latency in microseconds
+   */
+  public long getMax()
+  {
+    return max_;
+  }
+
+  public long getCount()
+  {
+    return count_;
+  }
+}
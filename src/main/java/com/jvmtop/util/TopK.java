@@ -0,0 +1,184 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Selects the k first elements (according to a comparator) of a sequence of elements,
+ * without sorting all of them.
+ *
+ * The selected elements are kept in a bounded binary heap whose root is the last
+ * selected element, so offering an element takes O(log k) and the memory is bounded by k,
+ * independent of the number of offered elements.
+ *
+ * @author paru
+ *
+ */
+public class TopK<T>
+{
+  private final int                   k_;
+
+  private final Comparator<? super T> comparator_;
+
+  private Object[]                    heap_;
+
+  private int                         size_ = 0;
+
+  /**
+   * @param k the maximum number of selected elements
+   * @param comparator the order of the elements, the first k elements of this order are selected
+   */
+  public TopK(int k, Comparator<? super T> comparator)
+  {
+    super();
+    if (k < 0)
+    {
+      throw new IllegalArgumentException("k must not be negative");
+    }
+    k_ = k;
+    comparator_ = comparator;
+    heap_ = new Object[Math.min(k, 16)];
+  }
+
+  /**
+   * Offers an element, it is selected if it is among the first k elements offered so far.
+   *
+   * @param element
+   * @return true if the element has been selected (for now)
+   */
+  public boolean offer(T element)
+  {
+    if (size_ < k_)
+    {
+      if (size_ == heap_.length)
+      {
+        heap_ = Arrays.copyOf(heap_, Math.min(k_, size_ * 2));
+      }
+      heap_[size_] = element;
+      siftUp(size_++);
+      return true;
+    }
+    if (k_ == 0 || comparator_.compare(element, get(0)) >= 0)
+    {
+      return false;
+    }
+    heap_[0] = element;
+    siftDown(0);
+    return true;
+  }
+
+  /**
+   * @return true if k elements are selected, so further elements have to beat getLast()
+   */
+  public boolean isFull()
+  {
+    return size_ == k_;
+  }
+
+  /**
+   * @return the last of the selected elements, or null if none has been selected
+   */
+  public T getLast()
+  {
+    return size_ > 0 ? get(0) : null;
+  }
+
+  public int size()
+  {
+    return size_;
+  }
+
+  /**
+   * @return the selected elements, in order
+   */
+  public List<T> toList()
+  {
+    List<T> list = new ArrayList<T>(size_);
+    for (int i = 0; i < size_; i++)
+    {
+      list.add(get(i));
+    }
+    Collections.sort(list, comparator_);
+    return list;
+  }
+
+  @SuppressWarnings("unchecked")
+  private T get(int index)
+  {
+    return (T) heap_[index];
+  }
+
+  /**
+   * The heap is ordered reversely: each parent is ordered after its children.
+   */
+  private boolean isOrderedAfter(int a, int b)
+  {
+    return comparator_.compare(get(a), get(b)) > 0;
+  }
+
+  private void siftUp(int index)
+  {
+    while (index > 0)
+    {
+      int parent = (index - 1) / 2;
+      if (!isOrderedAfter(index, parent))
+      {
+        return;
+      }
+      swap(parent, index);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index)
+  {
+    while (true)
+    {
+      int child = 2 * index + 1;
+      if (child >= size_)
+      {
+        return;
+      }
+      if (child + 1 < size_ && isOrderedAfter(child + 1, child))
+      {
+        child++;
+      }
+      if (!isOrderedAfter(child, index))
+      {
+        return;
+      }
+      swap(child, index);
+      index = child;
+    }
+  }
+
+  private void swap(int a, int b)
+  {
+    Object tmp = heap_[a];
+    heap_[a] = heap_[b];
+    heap_[b] = tmp;
+  }
+}
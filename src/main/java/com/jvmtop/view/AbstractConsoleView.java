@@ -20,15 +20,11 @@
  */
 package com.jvmtop.view;
 
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Formatter;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
+import com.jvmtop.monitor.DeadlockInfo;
+import com.jvmtop.monitor.VMInfo;
 
 /**
  * Base class for all console views, providing some helper methods
@@ -93,6 +89,59 @@ public abstract class AbstractConsoleView implements ConsoleView
     return sb.toString();
   }
 
+  /**
+   * Formats a number of milliseconds as an age in the largest fitting unit (e.g. "12s", "3m", "2h").
+   *
+   * @param millis
+   * @return
+   */
+  public String toAge(long millis)
+  {
+    long seconds = Math.max(0, millis / 1000);
+    if (seconds < 60)
+    {
+      return seconds + "s";
+    }
+    if (seconds < 3600)
+    {
+      return (seconds / 60) + "m";
+    }
+    return (seconds / 3600) + "h";
+  }
+
+  /**
+   * Formats the result of the most recent deadlock detection with its age,
+   * prefixed by "!D" if threads are deadlocked.
+   *
+   * @param deadlockInfo
+   * @return the state, or an empty string if the jvm has not been checked yet
+   */
+  public String formatDeadlockState(DeadlockInfo deadlockInfo)
+  {
+    if (deadlockInfo == null)
+    {
+      return "";
+    }
+    return (deadlockInfo.isDeadlocked() ? "!D" : "")
+        + toAge(deadlockInfo.getAgeMillis());
+  }
+
+  /**
+   * Prints the captured deadlock cycle of the given jvm.
+   *
+   * @param vmInfo
+   */
+  protected void printDeadlock(VMInfo vmInfo)
+  {
+    DeadlockInfo deadlockInfo = vmInfo.getDeadlockInfo();
+    System.out.printf(" DEADLOCK in PID %d (detected %s ago):%n",
+        vmInfo.getId(), toAge(deadlockInfo.getAgeMillis()));
+    for (String thread : deadlockInfo.getCycle())
+    {
+      System.out.printf("   %s%n", leftStr(thread, width - 3));
+    }
+  }
+
   /**
    * Returns a substring of the given string, representing the 'length' most-right characters
    * @param str
@@ -140,53 +189,55 @@ public abstract class AbstractConsoleView implements ConsoleView
     return sb.toString();
   }
 
-  @Override
-  public boolean shouldExit()
-  {
-    return shouldExit_;
-  }
-
   /**
-   * Requests the disposal of this view - it should be called again.
-   * TODO: refactor / remove this functional, use proper exception handling instead.
+   * Returns the main class (or jar) of a jvm, shortened to its 15 most-right characters.
+   *
+   * @param name the display name of the jvm, i.e. the main class followed by the arguments
+   * @return
    */
-  protected void exit()
+  protected String getEntryPointClass(String name)
   {
-    shouldExit_ = true;
+    if (name.indexOf(' ') > 0)
+    {
+      name = name.substring(0, name.indexOf(' '));
+    }
+    return rightStr(name, 15);
   }
 
   /**
-   * Sorts a Map by its values, using natural ordering.
+   * Shortens a full qualified class name if it exceeds the size.
+   * TODO: improve method to shorten middle packages first,
+   * maybe abbreviating the package by its first character.
    *
-   * @param map
-   * @param reverse
+   * @param fqn
+   * @param method
+   * @param size
    * @return
    */
-  public Map sortByValue(Map map, boolean reverse)
+  protected String shortFQN(String fqn, String method, int size)
   {
-    List list = new LinkedList(map.entrySet());
-    Collections.sort(list, new Comparator()
+    // synthetic frames (e.g. of truncated stacks) have no class name
+    String line = fqn.length() == 0 ? method : fqn + "." + method;
+    if (line.length() > size)
     {
-      @Override
-      public int compare(Object o1, Object o2)
-      {
-        return ((Comparable) ((Map.Entry) (o1)).getValue())
-            .compareTo(((Map.Entry) (o2)).getValue());
-      }
-    });
-
-    if (reverse)
-    {
-      Collections.reverse(list);
+      line = "..." + line.substring(3, size);
     }
+    return line;
+  }
 
-    Map result = new LinkedHashMap();
-    for (Iterator it = list.iterator(); it.hasNext();)
-    {
-      Map.Entry entry = (Map.Entry) it.next();
-      result.put(entry.getKey(), entry.getValue());
-    }
-    return result;
+  @Override
+  public boolean shouldExit()
+  {
+    return shouldExit_;
+  }
+
+  /**
+   * Requests the disposal of this view - it should be called again.
+   * TODO: refactor / remove this functional, use proper exception handling instead.
+   */
+  protected void exit()
+  {
+    shouldExit_ = true;
   }
 
   @Override
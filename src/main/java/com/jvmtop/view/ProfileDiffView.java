@@ -0,0 +1,111 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import com.jvmtop.profiler.MethodDiff;
+import com.jvmtop.profiler.ProfileData;
+import com.jvmtop.profiler.ProfileDiff;
+
+/**
+ * Compares two saved profiles and shows the methods whose share changed the most.
+ *
+ * The diff does not change, so the view exits after the first output.
+ *
+ * @author paru
+ *
+ */
+public class ProfileDiffView extends AbstractConsoleView
+{
+  private static final int TOP_METHODS  = 30;
+
+  private ProfileDiff      profileDiff_;
+
+  private File             foldedDiffOutput_ = null;
+
+  public ProfileDiffView(File base, File target, Integer width)
+      throws Exception
+  {
+    super(width);
+    profileDiff_ = new ProfileDiff(ProfileData.read(base),
+        ProfileData.read(target));
+  }
+
+  /**
+   * Exports the stacks of both profiles to the given file
+   * (differential collapsed stack format).
+   *
+   * @param file
+   */
+  public void setFoldedDiffOutput(File file)
+  {
+    foldedDiffOutput_ = file;
+  }
+
+  @Override
+  public void printView() throws Exception
+  {
+    ProfileData base = profileDiff_.getBase();
+    ProfileData target = profileDiff_.getTarget();
+    System.out.printf(" Profile diff (%s)%n", base.getType());
+    printProfile("BASE", base);
+    printProfile("TARGET", target);
+
+    // these are the spaces taken up by the formatting, the rest is usable
+    // for printing out the method name
+    int w = width - (2 + 7 + 2 + 7 + 2 + 8 + 2);
+    System.out.printf("%n     BASE   TARGET     DELTA  METHOD%n");
+    for (MethodDiff diff : profileDiff_.getTop(TOP_METHODS))
+    {
+      // synthetic frames (e.g. of truncated stacks) have no class name
+      String name = diff.getClassName().length() == 0 ? diff.getMethodName()
+          : diff.getClassName() + "." + diff.getMethodName() + "()";
+      System.out.printf("  %6.2f%%  %6.2f%%  %+7.2f%%  %s%n",
+          diff.getBaseShare(), diff.getTargetShare(), diff.getDelta(),
+          leftStr(name, w));
+    }
+
+    if (foldedDiffOutput_ != null)
+    {
+      profileDiff_.writeFolded(foldedDiffOutput_);
+      System.out.printf("%n Folded diff written to %s%n", foldedDiffOutput_);
+    }
+    exit();
+  }
+
+  private void printProfile(String label, ProfileData profile)
+  {
+    System.out.printf(" %-6s %s, saved %s, %d samples in %.2fs%n", label,
+        leftStr(profile.getName(), width - 60),
+        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(profile
+            .getTimestamp())), profile.getUpdateCount(),
+        profile.getSampledSeconds());
+  }
+
+  @Override
+  public void sleep(long millis) throws Exception
+  {
+    // there is nothing to refresh
+  }
+}
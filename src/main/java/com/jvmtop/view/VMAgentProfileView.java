@@ -0,0 +1,60 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import com.jvmtop.monitor.VMInfo;
+import com.jvmtop.profiler.AgentSampler;
+import com.jvmtop.profiler.CPUSampler;
+import com.jvmtop.profiler.ProfileSnapshot;
+
+/**
+ * CPU profiler view which samples using an agent loaded into the profiled jvm,
+ * instead of requesting thread dumps over JMX.
+ *
+ * @author paru
+ *
+ */
+public class VMAgentProfileView extends VMProfileView
+{
+  public VMAgentProfileView(int vmid, Integer width) throws Exception
+  {
+    super(vmid, width);
+  }
+
+  @Override
+  protected CPUSampler createSampler(VMInfo vmInfo) throws Exception
+  {
+    return new AgentSampler(vmInfo);
+  }
+
+  @Override
+  protected String getTitle()
+  {
+    return "Profiling (agent)";
+  }
+
+  @Override
+  protected String getFetchMode(ProfileSnapshot snapshot)
+  {
+    // stacks and cpu times are fetched by a single request to the agent
+    return "agent";
+  }
+}
@@ -0,0 +1,83 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import com.jvmtop.monitor.VMInfo;
+import com.jvmtop.profiler.AllocationSampler;
+import com.jvmtop.profiler.CPUSampler;
+import com.jvmtop.profiler.MethodStats;
+import com.jvmtop.profiler.ProfileSnapshot;
+
+/**
+ * Sampling-based allocation profiler view which shows the methods
+ * allocating the most memory (in bytes per second).
+ *
+ * @author paru
+ *
+ */
+public class VMAllocationProfileView extends VMProfileView
+{
+  public VMAllocationProfileView(int vmid, Integer width) throws Exception
+  {
+    super(vmid, width);
+  }
+
+  @Override
+  protected CPUSampler createSampler(VMInfo vmInfo) throws Exception
+  {
+    return new AllocationSampler(vmInfo);
+  }
+
+  @Override
+  protected String getTitle()
+  {
+    return "Allocation profiling";
+  }
+
+  /**
+   * Shows the allocation rate of the method.
+   */
+  @Override
+  protected String formatHits(MethodStats stats, ProfileSnapshot snapshot)
+  {
+    if (snapshot.getSampledSeconds() <= 0)
+    {
+      return String.format("%10s", "n/a");
+    }
+    return String.format("%8s/s",
+        toScaledBytes(stats.getHits() / snapshot.getSampledSeconds()));
+  }
+
+  /**
+   * Formats a number of bytes, scaled to the largest fitting unit (e.g. 4.3m).
+   */
+  private String toScaledBytes(double bytes)
+  {
+    String[] units = new String[] { "b", "k", "m", "g", "t" };
+    int unit = 0;
+    while (bytes >= 1024 && unit < units.length - 1)
+    {
+      bytes /= 1024;
+      unit++;
+    }
+    return String.format("%.1f%s", bytes, units[unit]);
+  }
+}
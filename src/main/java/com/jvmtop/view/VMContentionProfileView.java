@@ -0,0 +1,209 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import java.util.List;
+
+import com.jvmtop.monitor.VMInfo;
+import com.jvmtop.monitor.VMInfoState;
+import com.jvmtop.openjdk.tools.LocalVirtualMachine;
+import com.jvmtop.profiler.ContentionSampler;
+import com.jvmtop.profiler.ContentionSnapshot;
+import com.jvmtop.profiler.LockStats;
+import com.jvmtop.profiler.SamplingScheduler;
+
+/**
+ * Sampling-based lock contention profiler view which shows the locks
+ * (and the frames acquiring them) threads are blocked on the most.
+ *
+ * Contention is shown as the average number of blocked threads,
+ * i.e. the blocked thread-time per second.
+ *
+ * @author paru
+ *
+ */
+public class VMContentionProfileView extends AbstractConsoleView
+{
+  private static final int  TOP_LOCKS  = 10;
+
+  private static final int  TOP_FRAMES = 10;
+
+  private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+  private ContentionSampler contentionSampler_;
+
+  private VMInfo            vmInfo_;
+
+  private SamplingScheduler scheduler_;
+
+  public VMContentionProfileView(int vmid, Integer width) throws Exception
+  {
+    super(width);
+    LocalVirtualMachine localVirtualMachine = LocalVirtualMachine
+        .getLocalVirtualMachine(vmid);
+    vmInfo_ = VMInfo.processNewVM(localVirtualMachine, vmid);
+    contentionSampler_ = new ContentionSampler(vmInfo_);
+    scheduler_ = new SamplingScheduler(contentionSampler_);
+    Runtime.getRuntime().addShutdownHook(
+        new Thread("jvmtop contention monitoring reset")
+        {
+          @Override
+          public void run()
+          {
+            restoreContentionMonitoring();
+          }
+        });
+  }
+
+  /**
+   * Stops sampling and reverts the contention monitoring setting of the monitored jvm.
+   */
+  private void restoreContentionMonitoring()
+  {
+    try
+    {
+      // the sampler must not enable the setting again after it has been reverted
+      if (!scheduler_.stop(STOP_TIMEOUT_MILLIS))
+      {
+        System.err
+            .println("ERROR: Could not disable thread contention monitoring, sampling did not stop");
+        return;
+      }
+      contentionSampler_.restoreContentionMonitoring();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sets the interval between two samples, independent of the refresh delay.
+   *
+   * @param intervalMillis
+   */
+  public void setSampleInterval(long intervalMillis)
+  {
+    scheduler_.setIntervalMillis(intervalMillis);
+  }
+
+  /**
+   * Enables the adaptive sample interval, limiting the time spent for sampling
+   * to the given fraction (e.g. 0.01 for 1%).
+   *
+   * @param overheadBudget
+   */
+  public void setOverheadBudget(double overheadBudget)
+  {
+    scheduler_.setOverheadBudget(overheadBudget);
+  }
+
+  @Override
+  public void printView() throws Exception
+  {
+    if (vmInfo_.getState() == VMInfoState.ATTACHED_UPDATE_ERROR)
+    {
+      System.out
+          .println("ERROR: Could not fetch telemetries - Process terminated?");
+      exit();
+      return;
+    }
+    if (vmInfo_.getState() != VMInfoState.ATTACHED)
+    {
+      System.out.println("ERROR: Could not attach to process.");
+      exit();
+      return;
+    }
+
+    scheduler_.start();
+
+    ContentionSnapshot snapshot = contentionSampler_.getSnapshot();
+
+    if (snapshot != null && snapshot.getError() != null)
+    {
+      System.out
+          .println("ERROR: Could not fetch telemetries - Process terminated?");
+      exit();
+      return;
+    }
+
+    int w = width - 40;
+    System.out.printf(" Contention profiling PID %d: %40s %n",
+        vmInfo_.getId(), leftStr(vmInfo_.getDisplayName(), w));
+
+    if (snapshot == null || snapshot.getSampledSeconds() <= 0)
+    {
+      System.out.printf("%n Collecting samples...%n");
+      return;
+    }
+
+    System.out.printf(
+        " Sample rate: %.1f/s (%dms, %s), sample cost: %.1fms, blocked times: %s%n",
+        scheduler_.getSampleRate(), scheduler_.getIntervalMillis(),
+        scheduler_.getOverheadBudget() > 0 ? String.format("budget %.1f%%",
+            scheduler_.getOverheadBudget() * 100) : "fixed",
+        scheduler_.getSampleCostMillis(),
+        snapshot.isContentionMonitoringEnabled() ? "measured" : "estimated");
+    System.out.printf(" %d samples in %.2fs, blocked threads: %.2f%n",
+        snapshot.getUpdateCount(), snapshot.getSampledSeconds(),
+        toThreads(snapshot.getTotalBlockedMillis(), snapshot));
+
+    // these are the spaces taken up by the formatting, the rest is usable
+    // for printing out the lock (and frame) name
+    w = width - (2 + 7 + 1 + 7 + 1 + 9 + 2);
+
+    System.out.printf("%n  THREADS       %%    BLOCKS  LOCK%n");
+    printStats(snapshot.getTopLocks(TOP_LOCKS), snapshot, w);
+
+    System.out.printf("%n  THREADS       %%    BLOCKS  LOCK / ACQUIRING FRAME%n");
+    printStats(snapshot.getTopFrames(TOP_FRAMES), snapshot, w);
+  }
+
+  private void printStats(List<LockStats> statsList,
+      ContentionSnapshot snapshot, int w)
+  {
+    for (LockStats stats : statsList)
+    {
+      double ratio = (double) stats.getBlockedMillis()
+          / snapshot.getTotalBlockedMillis() * 100;
+      if (Double.isNaN(ratio))
+      {
+        continue;
+      }
+      String name = stats.getLockClassName();
+      if (stats.getClassName() != null)
+      {
+        name += ": " + stats.getClassName() + "." + stats.getMethodName() + "()";
+      }
+      System.out.printf("  %7.2f %6.2f%% %9d  %s%n",
+          toThreads(stats.getBlockedMillis(), snapshot), ratio,
+          stats.getBlockedCount(), leftStr(name, w));
+    }
+  }
+
+  /**
+   * Converts blocked milliseconds to the average number of blocked threads.
+   */
+  private double toThreads(long blockedMillis, ContentionSnapshot snapshot)
+  {
+    return blockedMillis / 1000d / snapshot.getSampledSeconds();
+  }
+}
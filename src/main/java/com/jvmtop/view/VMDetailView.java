@@ -23,14 +23,16 @@ package com.jvmtop.view;
 
 import java.lang.management.ThreadInfo;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
+import com.jvmtop.monitor.DeadlockDetector;
 import com.jvmtop.monitor.VMInfo;
 import com.jvmtop.monitor.VMInfoState;
 import com.jvmtop.openjdk.tools.LocalVirtualMachine;
+import com.jvmtop.util.TopK;
 
 /**
  * "detail" view, printing detail metrics of a specific jvm.
@@ -41,6 +43,20 @@ import com.jvmtop.openjdk.tools.LocalVirtualMachine;
  */
 public class VMDetailView extends AbstractConsoleView
 {
+  /**
+   * orders (thread id, cpu time delta) entries by the cpu time delta, descending
+   */
+  private static final class CPUTimeComparator implements
+      Comparator<Map.Entry<Long, Long>>
+  {
+    @Override
+    public int compare(Map.Entry<Long, Long> o1, Map.Entry<Long, Long> o2)
+    {
+      return o2.getValue().compareTo(o1.getValue());
+    }
+  }
+
+  private static final Comparator<Map.Entry<Long, Long>> CPU_TIME_COMPARATOR = new CPUTimeComparator();
 
   private VMInfo          vmInfo_;
 
@@ -55,12 +71,38 @@ public class VMDetailView extends AbstractConsoleView
   //TODO: refactor
   private Map<Long, Long> previousThreadCPUMillis   = new HashMap<Long, Long>();
 
+  private DeadlockDetector deadlockDetector_        = new DeadlockDetector();
+
   public VMDetailView(int vmid, Integer width) throws Exception
   {
     super(width);
     LocalVirtualMachine localVirtualMachine = LocalVirtualMachine
         .getLocalVirtualMachine(vmid);
     vmInfo_ = VMInfo.processNewVM(localVirtualMachine, vmid);
+    if (vmInfo_.getState() == VMInfoState.ATTACHED)
+    {
+      deadlockDetector_.register(vmInfo_);
+    }
+  }
+
+  /**
+   * Sets the minimum time between two deadlock detections.
+   *
+   * @param intervalMillis
+   */
+  public void setDeadlockInterval(long intervalMillis)
+  {
+    deadlockDetector_.setIntervalMillis(intervalMillis);
+  }
+
+  /**
+   * Sets the fraction of time (e.g. 0.01 for 1%) the deadlock detection may take.
+   *
+   * @param costBudget
+   */
+  public void setDeadlockBudget(double costBudget)
+  {
+    deadlockDetector_.setCostBudget(costBudget);
   }
 
   public boolean isSortByTotalCPU()
@@ -120,7 +162,7 @@ public class VMDetailView extends AbstractConsoleView
       System.out.printf(" ARGS: [UNKNOWN] %n");
     }
 
-    String join = join(vmInfo_.getRuntimeMXBean().getInputArguments(), " ");
+    String join = join(vmInfo_.getStaticInfo().getInputArguments(), " ");
     if (join.length() > 65)
     {
       System.out.printf(" VMARGS: %s[...]%n", leftStr(join, 65));
@@ -134,10 +176,9 @@ public class VMDetailView extends AbstractConsoleView
         properties.get("java.vm.name"), properties.get("java.version"));
     System.out.printf(
         " UP: %-7s #THR: %-4d #THRPEAK: %-4d #THRCREATED: %-4d USER: %-12s%n",
-        toHHMM(vmInfo_.getRuntimeMXBean().getUptime()), vmInfo_
-            .getThreadCount(), vmInfo_.getThreadMXBean().getPeakThreadCount(),
-        vmInfo_.getThreadMXBean().getTotalStartedThreadCount(), vmInfo_
-            .getOSUser());
+        toHHMM(vmInfo_.getUptime()), vmInfo_.getThreadCount(),
+        vmInfo_.getPeakThreadCount(), vmInfo_.getTotalStartedThreadCount(),
+        vmInfo_.getOSUser());
 
     System.out.printf(
         " GC-Time: %-7s  #GC-Runs: %-8d  #TotalLoadedClasses: %-8d%n",
@@ -150,6 +191,11 @@ public class VMDetailView extends AbstractConsoleView
         toMB(vmInfo_.getHeapUsed()), toMB(vmInfo_.getHeapMax()),
         toMB(vmInfo_.getNonHeapUsed()), toMB(vmInfo_.getNonHeapMax()));
 
+    if (vmInfo_.hasDeadlockThreads())
+    {
+      printDeadlock(vmInfo_);
+    }
+
     System.out.println();
 
     printTopThreads();
@@ -171,7 +217,11 @@ public class VMDetailView extends AbstractConsoleView
       //TODO: move this into VMInfo?
       Map<Long, Long> newThreadCPUMillis = new HashMap<Long, Long>();
 
-      Map<Long, Long> cpuTimeMap = new TreeMap<Long, Long>();
+      Map<Long, Long> cpuTimeMap = new HashMap<Long, Long>();
+
+      TopK<Map.Entry<Long, Long>> topThreads = new TopK<Map.Entry<Long, Long>>(
+          displayedThreadLimit_ ? numberOfDisplayedThreads_ : Integer.MAX_VALUE,
+          CPU_TIME_COMPARATOR);
 
       for (Long tid : vmInfo_.getThreadMXBean().getAllThreadIds())
       {
@@ -186,18 +236,15 @@ public class VMDetailView extends AbstractConsoleView
         newThreadCPUMillis.put(tid, threadCpuTime);
       }
 
-      cpuTimeMap = sortByValue(cpuTimeMap, true);
+      for (Map.Entry<Long, Long> entry : cpuTimeMap.entrySet())
+      {
+        topThreads.offer(entry);
+      }
 
-      int displayedThreads = 0;
-      for (Long tid : cpuTimeMap.keySet())
+      for (Map.Entry<Long, Long> entry : topThreads.toList())
       {
+        Long tid = entry.getKey();
         ThreadInfo info = vmInfo_.getThreadMXBean().getThreadInfo(tid);
-        displayedThreads++;
-        if (displayedThreads > numberOfDisplayedThreads_
-            && displayedThreadLimit_)
-        {
-          break;
-        }
         if (info != null)
         {
           System.out.printf(
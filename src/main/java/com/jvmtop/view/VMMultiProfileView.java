@@ -0,0 +1,344 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.jvmtop.monitor.CountingSocketFactory;
+import com.jvmtop.monitor.VMInfo;
+import com.jvmtop.monitor.VMInfoState;
+import com.jvmtop.openjdk.tools.LocalVirtualMachine;
+import com.jvmtop.profiler.CPUSampler;
+import com.jvmtop.profiler.FrameDictionary;
+import com.jvmtop.profiler.IdleFrameClassifier;
+import com.jvmtop.profiler.MethodStats;
+import com.jvmtop.profiler.PackageFilter;
+import com.jvmtop.profiler.ProfileSnapshot;
+import com.jvmtop.profiler.SamplingScheduler;
+import com.jvmtop.util.TopK;
+
+/**
+ * CPU sampling-based profiler view of several jvms, which ranks the methods with top CPU usage
+ * across all of them.
+ *
+ * All samplers are driven by a single SamplingScheduler (i.e. a single sampling thread)
+ * and share their frame dictionary, so frames common to the jvms (e.g. of the jdk) are kept only once.
+ *
+ * @author paru
+ *
+ */
+public class VMMultiProfileView extends AbstractConsoleView
+{
+  private static final int                      TOP_METHODS     = 20;
+
+  private static final Comparator<TargetMethod> HITS_COMPARATOR = new TargetMethodHitsComparator();
+
+  private List<Target>                          targets_        = new ArrayList<Target>();
+
+  private SamplingScheduler                     scheduler_      = new SamplingScheduler();
+
+  /**
+   * A profiled jvm, sampler is null (and error describes why)
+   * if the jvm could not be attached or cannot be profiled.
+   */
+  private static class Target
+  {
+    private final int        vmid_;
+
+    private final VMInfo     vmInfo_;
+
+    private final CPUSampler sampler_;
+
+    private final String     error_;
+
+    private Target(int vmid, VMInfo vmInfo, CPUSampler sampler, String error)
+    {
+      vmid_ = vmid;
+      vmInfo_ = vmInfo;
+      sampler_ = sampler;
+      error_ = error;
+    }
+  }
+
+  /**
+   * A method of the snapshot of a profiled jvm.
+   */
+  private static class TargetMethod
+  {
+    private final Target      target_;
+
+    private final MethodStats stats_;
+
+    private TargetMethod(Target target, MethodStats stats)
+    {
+      target_ = target;
+      stats_ = stats;
+    }
+  }
+
+  /**
+   * orders by hits (cpu time), descending
+   */
+  private static final class TargetMethodHitsComparator implements
+      Comparator<TargetMethod>
+  {
+    @Override
+    public int compare(TargetMethod o1, TargetMethod o2)
+    {
+      return o1.stats_.compareTo(o2.stats_);
+    }
+  }
+
+  public VMMultiProfileView(List<Integer> vmids, Integer width)
+      throws Exception
+  {
+    super(width);
+    // count the bytes transferred by sampling, see OverheadStats
+    CountingSocketFactory.install();
+    FrameDictionary frames = new FrameDictionary();
+    for (Integer vmid : vmids)
+    {
+      VMInfo vmInfo = null;
+      CPUSampler sampler = null;
+      String error = "Could not attach to VM";
+      try
+      {
+        LocalVirtualMachine localVirtualMachine = LocalVirtualMachine
+            .getLocalVirtualMachine(vmid);
+        vmInfo = VMInfo.processNewVM(localVirtualMachine, vmid);
+      }
+      catch (Exception e)
+      {
+        // the other jvms are profiled nevertheless
+        Logger.getLogger("jvmtop").log(Level.FINE,
+            "error during attach (PID=" + vmid + ")", e);
+      }
+      if (vmInfo != null && vmInfo.getState() == VMInfoState.ATTACHED)
+      {
+        sampler = new CPUSampler(vmInfo, frames);
+        error = sampler.checkSupported();
+        if (error == null)
+        {
+          scheduler_.addSampler(sampler);
+        }
+        else
+        {
+          sampler = null;
+        }
+      }
+      else
+      {
+        vmInfo = null;
+      }
+      targets_.add(new Target(vmid, vmInfo, sampler, error));
+    }
+  }
+
+  /**
+   * Sets the interval between two samples (of all jvms), independent of the refresh delay.
+   *
+   * @param intervalMillis
+   */
+  public void setSampleInterval(long intervalMillis)
+  {
+    scheduler_.setIntervalMillis(intervalMillis);
+  }
+
+  /**
+   * Enables the adaptive sample interval, limiting the time spent for sampling
+   * to the given fraction (e.g. 0.01 for 1%).
+   *
+   * @param overheadBudget
+   */
+  public void setOverheadBudget(double overheadBudget)
+  {
+    scheduler_.setOverheadBudget(overheadBudget);
+  }
+
+  /**
+   * Sets the maximum number of call tree nodes the profiler of each jvm keeps in memory.
+   *
+   * @param maxCallTreeNodes
+   */
+  public void setMaxCallTreeNodes(int maxCallTreeNodes)
+  {
+    for (Target target : targets_)
+    {
+      if (target.sampler_ != null)
+      {
+        target.sampler_.getCallTree().setMaxNodes(maxCallTreeNodes);
+      }
+    }
+  }
+
+  /**
+   * Fetches only the stacks of threads which consumed cpu time since the last sample,
+   * limited to the given depth.
+   *
+   * @param maxStackDepth
+   */
+  public void setTargetedSampling(int maxStackDepth)
+  {
+    for (Target target : targets_)
+    {
+      if (target.sampler_ != null)
+      {
+        target.sampler_.setTargetedSampling(maxStackDepth);
+      }
+    }
+  }
+
+  /**
+   * Sets the filter which determines the frames the samples are credited to.
+   *
+   * @param filter
+   */
+  public void setPackageFilter(PackageFilter filter)
+  {
+    for (Target target : targets_)
+    {
+      if (target.sampler_ != null)
+      {
+        target.sampler_.setFilter(filter);
+      }
+    }
+  }
+
+  /**
+   * Sets the classifier which determines the frames of RUNNABLE threads which are idle.
+   *
+   * @param idleClassifier
+   */
+  public void setIdleFrameClassifier(IdleFrameClassifier idleClassifier)
+  {
+    for (Target target : targets_)
+    {
+      if (target.sampler_ != null)
+      {
+        target.sampler_.setIdleFrameClassifier(idleClassifier);
+      }
+    }
+  }
+
+  /**
+   * Restricts the profiling to threads whose name matches the given pattern.
+   *
+   * @param threadNamePattern
+   */
+  public void setThreadNamePattern(Pattern threadNamePattern)
+  {
+    for (Target target : targets_)
+    {
+      if (target.sampler_ != null)
+      {
+        target.sampler_.setThreadNamePattern(threadNamePattern);
+      }
+    }
+  }
+
+  @Override
+  public void printView() throws Exception
+  {
+    // sampling starts with the first output, after the view has been configured
+    scheduler_.start();
+
+    System.out.printf(
+        " Profiling %d JVMs, sample rate: %.1f/s (%dms, %s), sample cost: %.1fms%n%n",
+        targets_.size(), scheduler_.getSampleRate(),
+        scheduler_.getIntervalMillis(),
+        scheduler_.getOverheadBudget() > 0 ? String.format("budget %.1f%%",
+            scheduler_.getOverheadBudget() * 100) : "fixed",
+        scheduler_.getSampleCostMillis());
+    System.out.printf("%5s %-15s %8s %8s %9s%n", "PID", "MAIN-CLASS",
+        "SAMPLES", "SECONDS", "CPU");
+
+    long total = 0;
+    TopK<TargetMethod> top = new TopK<TargetMethod>(TOP_METHODS,
+        HITS_COMPARATOR);
+    for (Target target : targets_)
+    {
+      ProfileSnapshot snapshot = target.sampler_ != null ? target.sampler_
+          .getSnapshot() : null;
+      printTarget(target, snapshot);
+      if (snapshot != null)
+      {
+        total += snapshot.getTotal();
+        for (MethodStats stats : snapshot.getTop(TOP_METHODS))
+        {
+          if (!top.offer(new TargetMethod(target, stats)))
+          {
+            // the methods of a snapshot are ordered by their hits
+            break;
+          }
+        }
+      }
+    }
+
+    if (total == 0)
+    {
+      System.out.printf("%n Collecting samples...%n");
+      return;
+    }
+
+    System.out.printf("%n%5s %7s %10s  %s%n", "PID", "CPU%", "CPU", "METHOD");
+    // these are the spaces taken up by the formatting, the rest is usable
+    // for printing out the method name
+    int w = width - (5 + 1 + 7 + 1 + 10 + 2 + 2);
+    for (TargetMethod method : top.toList())
+    {
+      MethodStats stats = method.stats_;
+      System.out.printf("%5d %6.2f%% %9.2fs  %s()%n",
+          method.target_.vmid_, (double) stats.getHits() / total
+              * 100, stats.getHits() / 1000000000d,
+          shortFQN(stats.getClassName(), stats.getMethodName(), w));
+    }
+  }
+
+  private void printTarget(Target target, ProfileSnapshot snapshot)
+  {
+    if (target.sampler_ == null)
+    {
+      String mainClass = target.vmInfo_ != null ? getEntryPointClass(target.vmInfo_
+          .getDisplayName()) : "";
+      System.out.printf("%5d %-15.15s [ERROR: %s]%n", target.vmid_, mainClass,
+          target.error_);
+      return;
+    }
+    String mainClass = getEntryPointClass(target.vmInfo_.getDisplayName());
+    if (snapshot == null)
+    {
+      System.out.printf("%5d %-15.15s [collecting samples]%n", target.vmid_,
+          mainClass);
+    }
+    else
+    {
+      System.out.printf("%5d %-15.15s %8d %7.2fs %8.2fs%s%n", target.vmid_,
+          mainClass, snapshot.getUpdateCount(), snapshot.getSampledSeconds(),
+          snapshot.getTotal() / 1000000000d,
+          snapshot.getError() != null ? " [ERROR: Process terminated?]" : "");
+    }
+  }
+}
@@ -28,8 +28,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.jvmtop.monitor.DeadlockDetector;
 import com.jvmtop.monitor.VMInfo;
 import com.jvmtop.monitor.VMInfoState;
+import com.jvmtop.monitor.VMSnapshot;
+import com.jvmtop.monitor.VMUpdateEngine;
 import com.jvmtop.openjdk.tools.LocalVirtualMachine;
 
 /**
@@ -41,14 +44,49 @@ import com.jvmtop.openjdk.tools.LocalVirtualMachine;
 public class VMOverviewView extends AbstractConsoleView
 {
 
-  private List<VMInfo>                      vmInfoList = new ArrayList<VMInfo>();
+  private List<VMInfo>                      vmInfoList        = new ArrayList<VMInfo>();
 
-  private Map<Integer, LocalVirtualMachine> vmMap      = new HashMap<Integer, LocalVirtualMachine>();
+  private Map<Integer, LocalVirtualMachine> vmMap             = new HashMap<Integer, LocalVirtualMachine>();
+
+  private DeadlockDetector                  deadlockDetector_ = new DeadlockDetector();
+
+  private VMUpdateEngine                    updateEngine_     = new VMUpdateEngine();
 
   public VMOverviewView(Integer width) {
     super(width);
   }
 
+  /**
+   * Sets the minimum time between two deadlock detections of the same jvm.
+   *
+   * @param intervalMillis
+   */
+  public void setDeadlockInterval(long intervalMillis)
+  {
+    deadlockDetector_.setIntervalMillis(intervalMillis);
+  }
+
+  /**
+   * Sets the fraction of time (e.g. 0.01 for 1%) the deadlock detection of a jvm may take.
+   *
+   * @param costBudget
+   */
+  public void setDeadlockBudget(double costBudget)
+  {
+    deadlockDetector_.setCostBudget(costBudget);
+  }
+
+  /**
+   * Sets the time the rendering waits for the updates of the jvms,
+   * jvms which are not updated in time are shown with their last known values.
+   *
+   * @param timeoutMillis
+   */
+  public void setUpdateTimeout(long timeoutMillis)
+  {
+    updateEngine_.setTimeoutMillis(timeoutMillis);
+  }
+
   public void printView() throws Exception
   {
     printHeader();
@@ -58,89 +96,99 @@ public class VMOverviewView extends AbstractConsoleView
 
     updateVMs(vmInfoList);
 
-    Collections.sort(vmInfoList, VMInfo.CPU_LOAD_COMPARATOR);
+    for (VMInfo vmInfo : updateEngine_.getAttachedVMs())
+    {
+      vmInfoList.add(vmInfo);
+      if (vmInfo.getSnapshot().getState() == VMInfoState.ATTACHED)
+      {
+        deadlockDetector_.register(vmInfo);
+      }
+    }
 
+    // updates might still be running, so only the published snapshots are read
+    List<VMSnapshot> snapshots = new ArrayList<VMSnapshot>(vmInfoList.size());
     for (VMInfo vmInfo : vmInfoList)
     {
-      if (vmInfo.getState() == VMInfoState.ATTACHED
+      snapshots.add(vmInfo.getSnapshot());
+    }
+    Collections.sort(snapshots, VMSnapshot.CPU_LOAD_COMPARATOR);
+
+    for (VMSnapshot snapshot : snapshots)
+    {
+      if (snapshot.getState() == VMInfoState.ATTACHED
 )
       {
-        printVM(vmInfo);
+        printVM(snapshot);
       }
-      else if (vmInfo.getState() == VMInfoState.ATTACHED_UPDATE_ERROR)
+      else if (snapshot.getState() == VMInfoState.ATTACHED_UPDATE_ERROR)
       {
         System.out
             .printf(
                 "%5d %-15.15s [ERROR: Could not fetch telemetries (Process DEAD?)] %n",
-                vmInfo.getId(), getEntryPointClass(vmInfo.getDisplayName()));
+                snapshot.getId(), getEntryPointClass(snapshot.getDisplayName()));
 
       }
-      else if (vmInfo.getState() == VMInfoState.ERROR_DURING_ATTACH)
+      else if (snapshot.getState() == VMInfoState.ERROR_DURING_ATTACH)
       {
         System.out.printf("%5d %-15.15s [ERROR: Could not attach to VM] %n",
-            vmInfo.getId(), getEntryPointClass(vmInfo.getDisplayName()));
+            snapshot.getId(), getEntryPointClass(snapshot.getDisplayName()));
       }
-      else if (vmInfo.getState() == VMInfoState.CONNECTION_REFUSED)
+      else if (snapshot.getState() == VMInfoState.CONNECTION_REFUSED)
       {
         System.out.printf(
             "%5d %-15.15s [ERROR: Connection refused/access denied] %n",
-            vmInfo.getId(), getEntryPointClass(vmInfo.getDisplayName()));
+            snapshot.getId(), getEntryPointClass(snapshot.getDisplayName()));
       }
 
     }
-  }
 
-  /**
-   * @param name
-   * @return
-   */
-  private String getEntryPointClass(String name)
-  {
-    if (name.indexOf(' ') > 0)
+    for (VMSnapshot snapshot : snapshots)
     {
-      name = name.substring(0, name.indexOf(' '));
+      if (snapshot.getState() == VMInfoState.ATTACHED
+          && snapshot.getVMInfo().hasDeadlockThreads())
+      {
+        System.out.println();
+        printDeadlock(snapshot.getVMInfo());
+      }
     }
-    return rightStr(name, 15);
   }
 
   /**
-   * @param localvm
-   * @param vmid
-   * @param vmInfo
-   * @return
+   * @param snapshot
    * @throws Exception
    */
-  private void printVM(VMInfo vmInfo) throws Exception
+  private void printVM(VMSnapshot snapshot) throws Exception
   {
 
-    String deadlockState = "";
-    if (vmInfo.hasDeadlockThreads())
-    {
-      deadlockState = "!D";
-    }
+    String deadlockState = formatDeadlockState(snapshot.getVMInfo()
+        .getDeadlockInfo());
+
+    // the update is still running, the values might be outdated
+    String staleState = updateEngine_.isStale(snapshot.getVMInfo()) ? " [STALE]"
+        : "";
 
     System.out
         .printf(
-            "%5d %-15.15s %5s %5s %5s %5s %5.2f%% %5.2f%% %-5.5s %8.8s %4d %2.2s%n",
-            vmInfo.getId(), getEntryPointClass(vmInfo.getDisplayName()),
-            toMB(vmInfo.getHeapUsed()), toMB(vmInfo.getHeapMax()),
-            toMB(vmInfo.getNonHeapUsed()), toMB(vmInfo.getNonHeapMax()),
-            vmInfo.getCpuLoad() * 100, vmInfo.getGcLoad() * 100,
-            vmInfo.getVMVersion(), vmInfo.getOSUser(), vmInfo.getThreadCount(),
-            deadlockState);
+            "%5d %-15.15s %5s %5s %5s %5s %5.2f%% %5.2f%% %-5.5s %8.8s %4d %5.5s%s%n",
+            snapshot.getId(), getEntryPointClass(snapshot.getDisplayName()),
+            toMB(snapshot.getHeapUsed()), toMB(snapshot.getHeapMax()),
+            toMB(snapshot.getNonHeapUsed()), toMB(snapshot.getNonHeapMax()),
+            snapshot.getCpuLoad() * 100, snapshot.getGcLoad() * 100,
+            snapshot.getVMVersion(), snapshot.getOSUser(),
+            snapshot.getThreadCount(),
+            deadlockState, staleState);
 
   }
 
   /**
+   * Updates the jvms in parallel, waiting up to the update timeout.
+   *
    * @param vmList
    * @throws Exception
    */
   private void updateVMs(List<VMInfo> vmList) throws Exception
   {
-    for (VMInfo vmInfo : vmList)
-    {
-      vmInfo.update();
-    }
+    updateEngine_.update(vmList);
   }
 
   /**
@@ -161,8 +209,8 @@ public class VMOverviewView extends AbstractConsoleView
 
       if (!vmMap.containsKey(vmid))
       {
-        VMInfo vmInfo = VMInfo.processNewVM(localvm, vmid);
-        vmInfoList.add(vmInfo);
+        // attaching might take long, the vm is shown once it has been attached
+        updateEngine_.attach(localvm, vmid);
       }
     }
     vmMap = machines;
@@ -173,7 +221,7 @@ public class VMOverviewView extends AbstractConsoleView
   */
   private void printHeader()
   {
-    System.out.printf("%5s %-15.15s %5s %5s %5s %5s %6s %6s %5s %8s %4s %2s%n",
+    System.out.printf("%5s %-15.15s %5s %5s %5s %5s %6s %6s %5s %8s %4s %5s%n",
         "PID", "MAIN-CLASS", "HPCUR", "HPMAX", "NHCUR", "NHMAX", "CPU", "GC",
         "VM", "USERNAME", "#T", "DL");
   }
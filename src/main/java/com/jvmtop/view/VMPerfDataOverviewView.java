@@ -0,0 +1,197 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jvmtop.monitor.PerfCounters;
+import com.jvmtop.monitor.PerfDataVMInfo;
+
+/**
+ * "overview" view which reads the performance counters (hsperfdata) of all local jvms,
+ * without attaching to any of them.
+ *
+ * Thus it refreshes quickly even for many jvms, but lacks the metrics which require
+ * an attach (e.g. deadlocks) and shows the cpu load on Linux only.
+ *
+ * @author paru
+ *
+ */
+public class VMPerfDataOverviewView extends AbstractConsoleView
+{
+  /**
+   * the delay before the first retry to open the counters of a jvm, doubled on each failure
+   */
+  private static final long            MIN_RETRY_DELAY_MILLIS = 1000;
+
+  private static final long            MAX_RETRY_DELAY_MILLIS = 60000;
+
+  private Map<Integer, PerfDataVMInfo> vmInfoMap              = new HashMap<Integer, PerfDataVMInfo>();
+
+  /**
+   * jvms whose counters could not be opened (e.g. as they were just starting up),
+   * they are retried with an exponential backoff
+   */
+  private Map<Integer, FailedVM>       failedVms_             = new HashMap<Integer, FailedVM>();
+
+  /**
+   * The retry state of a jvm whose counters could not be opened.
+   */
+  private static class FailedVM
+  {
+    private long retryDelayMillis_ = MIN_RETRY_DELAY_MILLIS;
+
+    private long nextRetryTime_;
+
+    private FailedVM(long now)
+    {
+      nextRetryTime_ = now + retryDelayMillis_;
+    }
+
+    private void failedAgain(long now)
+    {
+      retryDelayMillis_ = Math.min(retryDelayMillis_ * 2,
+          MAX_RETRY_DELAY_MILLIS);
+      nextRetryTime_ = now + retryDelayMillis_;
+    }
+  }
+
+  public VMPerfDataOverviewView(Integer width)
+  {
+    super(width);
+  }
+
+  public void printView() throws Exception
+  {
+    printHeader();
+
+    scanVMs();
+
+    List<PerfDataVMInfo> vmInfoList = new ArrayList<PerfDataVMInfo>(
+        vmInfoMap.values());
+    for (PerfDataVMInfo vmInfo : vmInfoList)
+    {
+      vmInfo.update();
+    }
+
+    Collections.sort(vmInfoList, PerfDataVMInfo.CPU_LOAD_COMPARATOR);
+
+    for (PerfDataVMInfo vmInfo : vmInfoList)
+    {
+      printVM(vmInfo);
+    }
+    for (Integer vmid : failedVms_.keySet())
+    {
+      System.out.printf(
+          "%5d %-15.15s [ERROR: Could not read performance counters] %n", vmid,
+          "");
+    }
+  }
+
+  /**
+   * Opens the counters of new jvms (and retries failed ones when due)
+   * and closes the counters of terminated ones.
+   */
+  private void scanVMs() throws Exception
+  {
+    Set<Integer> activeVms = PerfCounters.getActiveVms();
+
+    for (Iterator<Entry<Integer, PerfDataVMInfo>> it = vmInfoMap.entrySet()
+        .iterator(); it.hasNext();)
+    {
+      Entry<Integer, PerfDataVMInfo> entry = it.next();
+      if (!activeVms.contains(entry.getKey()))
+      {
+        entry.getValue().close();
+        it.remove();
+      }
+    }
+    failedVms_.keySet().retainAll(activeVms);
+
+    long now = System.currentTimeMillis();
+    for (Integer vmid : activeVms)
+    {
+      if (vmInfoMap.containsKey(vmid))
+      {
+        continue;
+      }
+      FailedVM failedVM = failedVms_.get(vmid);
+      if (failedVM != null && now < failedVM.nextRetryTime_)
+      {
+        continue;
+      }
+      try
+      {
+        vmInfoMap.put(vmid, PerfDataVMInfo.open(vmid));
+        failedVms_.remove(vmid);
+      }
+      catch (Exception e)
+      {
+        Logger.getLogger("jvmtop").log(Level.FINE,
+            "could not open the performance counters of " + vmid, e);
+        if (failedVM == null)
+        {
+          failedVms_.put(vmid, new FailedVM(now));
+        }
+        else
+        {
+          failedVM.failedAgain(now);
+        }
+      }
+    }
+  }
+
+  private void printVM(PerfDataVMInfo vmInfo)
+  {
+    System.out.printf(
+        "%5d %-15.15s %5s %5s %5s %5s %6s %5.2f%% %-5.5s %8.8s %4d%n",
+        vmInfo.getId(), getEntryPointClass(vmInfo.getDisplayName()),
+        toMB(vmInfo.getHeapUsed()), toMB(vmInfo.getHeapMax()),
+        toMB(vmInfo.getNonHeapUsed()), toMB(vmInfo.getNonHeapMax()),
+        formatLoad(vmInfo.getCpuLoad()), vmInfo.getGcLoad() * 100,
+        vmInfo.getVMVersion(), vmInfo.getOSUser(), vmInfo.getThreadCount());
+  }
+
+  private String formatLoad(double load)
+  {
+    if (load < 0)
+    {
+      return "n/a";
+    }
+    return String.format("%5.2f%%", load * 100);
+  }
+
+  private void printHeader()
+  {
+    System.out.printf("%5s %-15.15s %5s %5s %5s %5s %6s %6s %5s %8s %4s%n",
+        "PID", "MAIN-CLASS", "HPCUR", "HPMAX", "NHCUR", "NHMAX", "CPU", "GC",
+        "VM", "USERNAME", "#T");
+  }
+}
@@ -20,13 +20,31 @@
  */
 package com.jvmtop.view;
 
+import java.io.File;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
+import com.jvmtop.monitor.CountingSocketFactory;
+import com.jvmtop.monitor.PerfCounters;
 import com.jvmtop.monitor.VMInfo;
 import com.jvmtop.monitor.VMInfoState;
 import com.jvmtop.openjdk.tools.LocalVirtualMachine;
 import com.jvmtop.profiler.CPUSampler;
+import com.jvmtop.profiler.FoldedStackWriter;
+import com.jvmtop.profiler.IdleFrameClassifier;
+import com.jvmtop.profiler.LineHits;
+import com.jvmtop.profiler.LineStats;
 import com.jvmtop.profiler.MethodStats;
+import com.jvmtop.profiler.OverheadStats;
+import com.jvmtop.profiler.PackageFilter;
+import com.jvmtop.profiler.ProfileSnapshot;
+import com.jvmtop.profiler.RecentHits;
+import com.jvmtop.profiler.SamplingScheduler;
+import com.jvmtop.profiler.ThreadPoolStats;
 
 /**
  * CPU sampling-based profiler view which shows methods with top CPU usage.
@@ -37,30 +55,271 @@ import com.jvmtop.profiler.MethodStats;
 public class VMProfileView extends AbstractConsoleView
 {
 
-  private CPUSampler cpuSampler_;
+  private static final int  TOP_THREAD_POOLS             = 5;
 
-  private VMInfo     vmInfo_;
+  private static final int  TOP_METHODS_PER_THREAD_POOL  = 5;
+
+  /**
+   * line number of native methods, as reported by StackTraceElement
+   */
+  private static final int  NATIVE_LINE_NUMBER           = -2;
+
+  /**
+   * the maximum time to wait for a running sample when sampling is stopped
+   */
+  private static final long STOP_TIMEOUT_MILLIS          = 5000;
+
+  private CPUSampler        cpuSampler_;
+
+  private VMInfo            vmInfo_;
+
+  private SamplingScheduler scheduler_;
+
+  private RecentHits        recentHits_ = null;
+
+  /**
+   * the reason why the sampler cannot be used with the profiled jvm, null if it can
+   */
+  private String            unsupportedReason_ = null;
 
   public VMProfileView(int vmid, Integer width) throws Exception
   {
     super(width);
+    // count the bytes transferred by sampling, see OverheadStats
+    CountingSocketFactory.install();
     LocalVirtualMachine localVirtualMachine = LocalVirtualMachine
         .getLocalVirtualMachine(vmid);
     vmInfo_ = VMInfo.processNewVM(localVirtualMachine, vmid);
-    cpuSampler_ = new CPUSampler(vmInfo_);
+    cpuSampler_ = createSampler(vmInfo_);
+    try
+    {
+      cpuSampler_.setPerfCounters(PerfCounters.open(vmid));
+    }
+    catch (Exception e)
+    {
+      Logger.getLogger("jvmtop").log(Level.FINE,
+          "performance counters not available, safepoint time unknown", e);
+    }
+    scheduler_ = new SamplingScheduler(cpuSampler_);
+    if (vmInfo_.getState() == VMInfoState.ATTACHED)
+    {
+      unsupportedReason_ = cpuSampler_.checkSupported();
+    }
+  }
+
+  /**
+   * Creates the sampler, invoked by the constructor.
+   *
+   * @param vmInfo
+   * @return
+   * @throws Exception
+   */
+  protected CPUSampler createSampler(VMInfo vmInfo) throws Exception
+  {
+    return new CPUSampler(vmInfo);
+  }
+
+  /**
+   * Sets the maximum number of call tree nodes the profiler keeps in memory.
+   *
+   * @param maxCallTreeNodes
+   */
+  public void setMaxCallTreeNodes(int maxCallTreeNodes)
+  {
+    cpuSampler_.getCallTree().setMaxNodes(maxCallTreeNodes);
+  }
+
+  /**
+   * Enables the export of all sampled stacks to the given file
+   * (collapsed stack format, updated on every refresh).
+   *
+   * @param file
+   */
+  public void setFoldedStackOutput(File file)
+  {
+    cpuSampler_.setFoldedStackWriter(new FoldedStackWriter(file, cpuSampler_));
+  }
+
+  /**
+   * Saves the profile to the given file when jvmtop exits (e.g. on Ctrl-C),
+   * so it can be compared with another profile later on.
+   *
+   * @param file
+   */
+  public void setProfileSaveFile(final File file)
+  {
+    Runtime.getRuntime().addShutdownHook(new Thread("jvmtop profile writer")
+    {
+      @Override
+      public void run()
+      {
+        saveProfile(file);
+      }
+    });
+  }
+
+  private void saveProfile(File file)
+  {
+    try
+    {
+      // the profiling results are confined to the sampling thread
+      if (!stopSampling())
+      {
+        System.err
+            .println("ERROR: Could not save profile, sampling did not stop");
+        return;
+      }
+      cpuSampler_.captureProfile(file.getName()).write(file);
+      System.err.println("Profile saved to " + file);
+    }
+    catch (Exception e)
+    {
+      System.err.println("ERROR: Could not save profile to " + file + ": "
+          + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops the sampling and releases the performance counters of the monitored jvm.
+   *
+   * @return false if the running sample did not finish in time
+   * @throws InterruptedException
+   */
+  private boolean stopSampling() throws InterruptedException
+  {
+    if (!scheduler_.stop(STOP_TIMEOUT_MILLIS))
+    {
+      return false;
+    }
+    cpuSampler_.close();
+    return true;
   }
 
   @Override
-  public void sleep(long millis) throws Exception
+  protected void exit()
   {
-    long cur = System.currentTimeMillis();
-    cpuSampler_.update();
-    while (cur + millis > System.currentTimeMillis())
+    super.exit();
+    try
+    {
+      stopSampling();
+    }
+    catch (InterruptedException e)
     {
-      cpuSampler_.update();
-      super.sleep(100);
+      Thread.currentThread().interrupt();
     }
+  }
+
+  /**
+   * Sets the interval between two samples, independent of the refresh delay.
+   *
+   * @param intervalMillis
+   */
+  public void setSampleInterval(long intervalMillis)
+  {
+    scheduler_.setIntervalMillis(intervalMillis);
+  }
+
+  /**
+   * Enables the adaptive sample interval, limiting the time spent for sampling
+   * to the given fraction (e.g. 0.01 for 1%).
+   *
+   * @param overheadBudget
+   */
+  public void setOverheadBudget(double overheadBudget)
+  {
+    scheduler_.setOverheadBudget(overheadBudget);
+  }
+
+  /**
+   * Fetches only the stacks of threads which consumed cpu time since the last sample,
+   * limited to the given depth.
+   *
+   * @param maxStackDepth
+   */
+  public void setTargetedSampling(int maxStackDepth)
+  {
+    cpuSampler_.setTargetedSampling(maxStackDepth);
+  }
+
+  /**
+   * Sets the filter which determines the frames the samples are credited to.
+   *
+   * @param filter
+   */
+  public void setPackageFilter(PackageFilter filter)
+  {
+    cpuSampler_.setFilter(filter);
+  }
+
+  /**
+   * Sets the classifier which determines the frames of RUNNABLE threads which are idle.
+   *
+   * @param idleClassifier
+   */
+  public void setIdleFrameClassifier(IdleFrameClassifier idleClassifier)
+  {
+    cpuSampler_.setIdleFrameClassifier(idleClassifier);
+  }
+
+  /**
+   * Additionally shows the share of each method within the given sliding window
+   * (e.g. the last 10 seconds), the methods are ordered by this share.
+   *
+   * @param windowMillis
+   */
+  public void setRecentWindow(long windowMillis)
+  {
+    setRecentHits(new RecentHits(
+        TimeUnit.MILLISECONDS.toNanos(windowMillis), false));
+  }
 
+  /**
+   * Additionally shows the share of each method with exponentially decayed hits,
+   * the methods are ordered by this share.
+   *
+   * @param halfLifeMillis
+   */
+  public void setRecentHalfLife(long halfLifeMillis)
+  {
+    setRecentHits(new RecentHits(
+        TimeUnit.MILLISECONDS.toNanos(halfLifeMillis), true));
+  }
+
+  private void setRecentHits(RecentHits recentHits)
+  {
+    recentHits_ = recentHits;
+    cpuSampler_.setRecentHits(recentHits);
+  }
+
+  /**
+   * Shows the top methods per thread pool (threads with the same name, apart from trailing digits)
+   * instead of the global top methods.
+   *
+   * @param threadPoolView
+   */
+  public void setThreadPoolView(boolean threadPoolView)
+  {
+    cpuSampler_.setThreadPoolsRecorded(threadPoolView);
+  }
+
+  /**
+   * Restricts the profiling to threads whose name matches the given pattern.
+   *
+   * @param threadNamePattern
+   */
+  public void setThreadNamePattern(Pattern threadNamePattern)
+  {
+    cpuSampler_.setThreadNamePattern(threadNamePattern);
+  }
+
+  /**
+   * Shows the source lines with the most hits below each method.
+   *
+   * @param maxLines the maximum number of lines kept in memory
+   */
+  public void setLineView(int maxLines)
+  {
+    cpuSampler_.setLineHits(new LineHits(maxLines));
   }
 
   @Override
@@ -79,48 +338,199 @@ public class VMProfileView extends AbstractConsoleView
       exit();
       return;
     }
+    if (unsupportedReason_ != null)
+    {
+      System.out.println("ERROR: " + unsupportedReason_ + ".");
+      exit();
+      return;
+    }
+
+    // sampling starts with the first output, after the view has been configured
+    scheduler_.start();
+
+    ProfileSnapshot snapshot = cpuSampler_.getSnapshot();
+
+    if (snapshot != null && snapshot.getError() != null)
+    {
+      System.out
+          .println("ERROR: Could not fetch telemetries - Process terminated?");
+      exit();
+      return;
+    }
 
     int w = width - 40;
-    System.out.printf(" Profiling PID %d: %40s %n%n", vmInfo_.getId(),
+    System.out.printf(" %s PID %d: %40s %n", getTitle(), vmInfo_.getId(),
         leftStr(vmInfo_.getDisplayName(), w));
 
+    if (snapshot == null)
+    {
+      System.out.printf("%n Collecting samples...%n");
+      return;
+    }
+
+    System.out.printf(
+        " Sample rate: %.1f/s (%dms, %s), sample cost: %.1fms, error: +/-%.1f%%%n",
+        scheduler_.getSampleRate(), scheduler_.getIntervalMillis(),
+        scheduler_.getOverheadBudget() > 0 ? String.format("budget %.1f%%",
+            scheduler_.getOverheadBudget() * 100) : "fixed",
+        scheduler_.getSampleCostMillis(), snapshot.getStatisticalError());
+    System.out.printf(
+        " %d samples in %.2fs, remote calls per sample: %d (%s%s)%n%n",
+        snapshot.getUpdateCount(), snapshot.getSampledSeconds(),
+        snapshot.getLastRoundTrips(),
+        getFetchMode(snapshot),
+        cpuSampler_.isTargetedSampling() ? ", targeted" : "");
+    if (recentHits_ != null && snapshot.getRecentTotal() >= 0)
+    {
+      System.out.printf("    NOW   TOTAL  (NOW: %s %.0fs, TOTAL: since start)%n",
+          recentHits_.isDecayed() ? "half-life" : "last",
+          recentHits_.getDurationSeconds());
+    }
+
+    List<ThreadPoolStats> threadPools = snapshot
+        .getTopThreadPools(TOP_THREAD_POOLS);
+    if (threadPools != null)
+    {
+      for (ThreadPoolStats pool : threadPools)
+      {
+        System.out.printf(" %6.2f%% %s%n", (double) pool.getHits()
+            / snapshot.getTotal() * 100,
+            leftStr(pool.getName(), width - (1 + 6 + 2)));
+        printMethods(pool.getTop(TOP_METHODS_PER_THREAD_POOL), snapshot, "  ");
+      }
+    }
+    else
+    {
+      printMethods(snapshot.getTop(20), snapshot, "");
+    }
+
+    printOverhead(snapshot.getOverhead());
+
+    if (snapshot.getExportError() != null)
+    {
+      System.out.printf("%n ERROR: %s%n", snapshot.getExportError());
+    }
+  }
+
+  /**
+   * Prints the costs of sampling in the monitored jvm and in jvmtop itself.
+   */
+  private void printOverhead(OverheadStats overhead)
+  {
+    System.out.printf(
+        "%n Sample duration: median %.1fms, p99 %.1fms, max %.1fms, stack request p99 %.1fms%n",
+        overhead.getTickMedianMillis(), overhead.getTickP99Millis(),
+        overhead.getTickMaxMillis(), overhead.getStackRequestP99Millis());
+    double bytesPerSecond = overhead.getBytesPerSecond();
+    System.out.printf(
+        " Overhead: JMX %s, jvmtop cpu %s, target safepoints %s (during sampling: %s)%n",
+        Double.isNaN(bytesPerSecond) ? "n/a" : String.format("%.1fKB/s",
+            bytesPerSecond / 1024),
+        formatPercent(overhead.getOwnCpuLoad()),
+        formatPercent(overhead.getSafepointLoad()),
+        formatPercent(overhead.getSamplingSafepointLoad()));
+  }
+
+  private static String formatPercent(double percent)
+  {
+    return Double.isNaN(percent) ? "n/a" : String.format("%.2f%%", percent);
+  }
+
+  private void printMethods(List<MethodStats> methods,
+      ProfileSnapshot snapshot, String indent)
+  {
     // these are the spaces taken up by the formatting, the rest is usable
     // for printing out the method name
-    w = width - (1 + 6 + 3 + 9 + 3 + 2);
-    for (Iterator<MethodStats> iterator = cpuSampler_.getTop(20).iterator(); iterator
+    int w = width - (1 + 6 + 3 + 9 + 3 + 2) - indent.length();
+    for (Iterator<MethodStats> iterator = methods.iterator(); iterator
         .hasNext();)
     {
       MethodStats stats = iterator.next();
-      double wallRatio = (double) stats.getHits().get()
-          / cpuSampler_.getTotal() * 100;
+      double wallRatio = (double) stats.getHits() / snapshot.getTotal() * 100;
       if (!Double.isNaN(wallRatio))
       {
-        System.out.printf(" %6.2f%% (%9.2fs) %s()%n", wallRatio, wallRatio
-            / 100d
-            * cpuSampler_.getUpdateCount() * 0.1d,
-            shortFQN(stats.getClassName(), stats.getMethodName(), w));
+        String recent = "";
+        if (stats.getRecentHits() >= 0)
+        {
+          double recentRatio = snapshot.getRecentTotal() > 0 ? (double) stats
+              .getRecentHits() / snapshot.getRecentTotal() * 100 : 0;
+          recent = String.format(" %6.2f%%", recentRatio);
+        }
+        String details = formatDetails(stats);
+        System.out.printf("%s%s %6.2f%% (%s) %s%s()%n", indent, recent,
+            wallRatio, formatHits(stats, snapshot), details,
+            shortFQN(stats.getClassName(), stats.getMethodName(), w
+                - recent.length() - details.length()));
+        List<LineStats> lines = snapshot.getLines(stats);
+        if (lines != null)
+        {
+          printLines(lines, stats, indent + "         "
+              + (recent.length() > 0 ? "        " : ""));
+        }
       }
     }
   }
 
+  private void printLines(List<LineStats> lines, MethodStats method,
+      String indent)
+  {
+    for (LineStats line : lines)
+    {
+      String lineNumber;
+      if (line.getLineNumber() >= 0)
+      {
+        lineNumber = "line " + line.getLineNumber();
+      }
+      else if (line.getLineNumber() == NATIVE_LINE_NUMBER)
+      {
+        lineNumber = "native";
+      }
+      else
+      {
+        lineNumber = "unknown line";
+      }
+      System.out.printf("%s%6.2f%% %s%n", indent, (double) line.getHits()
+          / method.getHits() * 100, lineNumber);
+    }
+  }
+
+  protected String getTitle()
+  {
+    return "Profiling";
+  }
+
+  /**
+   * @param snapshot
+   * @return how the samples are fetched, shown next to the remote calls per sample
+   */
+  protected String getFetchMode(ProfileSnapshot snapshot)
+  {
+    return snapshot.isBulkCpuTimeSupported() ? "bulk" : "per-thread";
+  }
+
   /**
-   * Shortens a full qualified class name if it exceeds the size.
-   * TODO: improve method to shorten middle packages first,
-   * maybe abbreviating the package by its first character.
+   * Formats the hits of a method, using a width of 10 characters.
+   * Shows the cpu time the method consumed.
    *
-   * @param fqn
-   * @param method
-   * @param size
+   * @param stats
+   * @param snapshot
    * @return
    */
-  private String shortFQN(String fqn, String method, int size)
+  protected String formatHits(MethodStats stats, ProfileSnapshot snapshot)
   {
-    String line = fqn + "." + method;
-    if (line.length() > size)
-    {
-      line = "..." + line.substring(3, size);
-    }
-    return line;
+    return String.format("%9.2fs", (double) stats.getHits()
+        / snapshot.getTotal() * snapshot.getSampledSeconds());
+  }
+
+  /**
+   * Formats additional details of a method, printed in front of the method name.
+   *
+   * @param stats
+   * @return the details, including a trailing separator, or an empty string
+   */
+  protected String formatDetails(MethodStats stats)
+  {
+    return "";
   }
 
 }
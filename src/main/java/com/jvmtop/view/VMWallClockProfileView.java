@@ -0,0 +1,87 @@
+/**
+ * jvmtop - java monitoring for the command-line
+ *
+ * Copyright (C) 2013 by Patric Rufflar. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.jvmtop.view;
+
+import java.lang.Thread.State;
+
+import com.jvmtop.monitor.VMInfo;
+import com.jvmtop.profiler.CPUSampler;
+import com.jvmtop.profiler.MethodStats;
+import com.jvmtop.profiler.ProfileSnapshot;
+import com.jvmtop.profiler.WallClockSampler;
+
+/**
+ * Sampling-based wall-clock profiler view which shows the methods threads spend
+ * the most time in, regardless of whether they are running or waiting.
+ *
+ * For each method, the share of the thread states
+ * (R: RUNNABLE, B: BLOCKED, W: WAITING, T: TIMED_WAITING) is shown.
+ *
+ * @author paru
+ *
+ */
+public class VMWallClockProfileView extends VMProfileView
+{
+  public VMWallClockProfileView(int vmid, Integer width) throws Exception
+  {
+    super(vmid, width);
+  }
+
+  @Override
+  protected CPUSampler createSampler(VMInfo vmInfo) throws Exception
+  {
+    return new WallClockSampler(vmInfo);
+  }
+
+  @Override
+  protected String getTitle()
+  {
+    return "Wall-clock profiling";
+  }
+
+  /**
+   * Shows the thread time spent in the method.
+   */
+  @Override
+  protected String formatHits(MethodStats stats, ProfileSnapshot snapshot)
+  {
+    return String.format("%9.2fs", stats.getHits() / 1000000000d);
+  }
+
+  @Override
+  protected String formatDetails(MethodStats stats)
+  {
+    return String.format("R%3.0f%% B%3.0f%% W%3.0f%% T%3.0f%% ",
+        getStateRatio(stats, State.RUNNABLE),
+        getStateRatio(stats, State.BLOCKED),
+        getStateRatio(stats, State.WAITING),
+        getStateRatio(stats, State.TIMED_WAITING));
+  }
+
+  private double getStateRatio(MethodStats stats, State state)
+  {
+    if (stats.getHits() == 0)
+    {
+      return 0;
+    }
+    return (double) stats.getHits(state) / stats.getHits() * 100;
+  }
+}